@@ -0,0 +1,71 @@
+/**
+ * Copyright Terracotta, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ehcache.integrations.shiro;
+
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Runs the selected benchmarks once per thread count and writes all the results to a single machine-readable file.
+ * <P>
+ * Accepts the regular JMH command line options. Thread counts come from the {@code jmh.threads} system property
+ * (comma separated, {@code 1,4,16} by default) unless {@code -t} is given on the command line. The results are
+ * written in the {@code jmh.resultFormat} format ({@code JSON} by default) to the {@code jmh.result} file
+ * ({@code jmh-result.json} by default).
+ * </P>
+ */
+public final class BenchmarkRunner {
+
+  private BenchmarkRunner() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    CommandLineOptions commandLine = new CommandLineOptions(args);
+    if (commandLine.shouldHelp()) {
+      commandLine.showHelp();
+      return;
+    }
+
+    List<Integer> threadCounts = new ArrayList<Integer>();
+    if (commandLine.getThreads().hasValue()) {
+      threadCounts.add(commandLine.getThreads().get());
+    } else {
+      for (String threads : System.getProperty("jmh.threads", "1,4,16").split(",")) {
+        threadCounts.add(Integer.valueOf(threads.trim()));
+      }
+    }
+
+    List<RunResult> results = new ArrayList<RunResult>();
+    for (Integer threads : threadCounts) {
+      Collection<RunResult> run = new Runner(new OptionsBuilder().parent(commandLine).threads(threads).build()).run();
+      results.addAll(run);
+    }
+
+    ResultFormatType format = ResultFormatType.valueOf(System.getProperty("jmh.resultFormat", "JSON").toUpperCase());
+    String result = System.getProperty("jmh.result", "jmh-result." + format.name().toLowerCase());
+    ResultFormatFactory.getInstance(format, result).writeOut(results);
+    System.out.println("Benchmark results for " + threadCounts + " threads saved to " + result);
+  }
+}
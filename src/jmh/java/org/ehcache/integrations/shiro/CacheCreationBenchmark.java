@@ -0,0 +1,107 @@
+/**
+ * Copyright Terracotta, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ehcache.integrations.shiro;
+
+import org.ehcache.CacheManager;
+import org.ehcache.config.builders.CacheManagerBuilder;
+import org.ehcache.xml.XmlConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the startup of an application creating hundreds of caches on demand, like per realm or per tenant caches,
+ * from the {@code defaultCacheConfiguration} template: {@link EhcacheShiroManager#getCache(String)}, which reuses the
+ * resolved template, against resolving the template again for every cache. Divide by {@code cacheCount} for the
+ * creation latency of a single cache.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 20)
+@Fork(1)
+@State(Scope.Thread)
+public class CacheCreationBenchmark {
+
+  static final String CONFIGURATION = "org/ehcache/integrations/shiro/ehcache.xml";
+
+  @Param({"100", "500"})
+  public int cacheCount;
+
+  private String[] names;
+
+  private EhcacheShiroManager manager;
+
+  private CacheManager cacheManager;
+
+  @Setup(Level.Trial)
+  public void setUpNames() {
+    names = new String[cacheCount];
+    for (int i = 0; i < cacheCount; i++) {
+      names[i] = "tenant-" + i + ".authorizationCache";
+    }
+  }
+
+  @Setup(Level.Invocation)
+  public void setUp() {
+    manager = new EhcacheShiroManager();
+  }
+
+  @TearDown(Level.Invocation)
+  public void tearDown() throws Exception {
+    manager.destroy();
+    if (cacheManager != null) {
+      cacheManager.close();
+      cacheManager = null;
+    }
+  }
+
+  @Benchmark
+  public EhcacheShiroManager startup() {
+    manager.init();
+    for (String name : names) {
+      manager.getCache(name);
+    }
+    return manager;
+  }
+
+  @Benchmark
+  public CacheManager startupResolvingTemplates() throws Exception {
+    URL url = ClassUtils.getResource(CONFIGURATION);
+    XmlConfiguration configuration = new XmlConfiguration(url);
+    cacheManager = CacheManagerBuilder.newCacheManager(configuration);
+    cacheManager.init();
+    for (String name : names) {
+      cacheManager.createCache(name, configuration.newCacheConfigurationBuilderFromTemplate(
+              "defaultCacheConfiguration", Object.class, Object.class).build());
+    }
+    return cacheManager;
+  }
+}
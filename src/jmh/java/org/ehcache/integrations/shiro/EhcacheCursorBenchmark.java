@@ -0,0 +1,90 @@
+/**
+ * Copyright Terracotta, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ehcache.integrations.shiro;
+
+import org.apache.shiro.session.mgt.SimpleSession;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency of reading a page of sessions with an {@link EhcacheCursor}, which should not depend on the
+ * {@code keySpace} of {@link TieredCacheState}, against the full traversal of {@code keys()} it replaces.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EhcacheCursorBenchmark {
+
+  /**
+   * Cursor kept across invocations, reopened once the traversal is complete.
+   */
+  @State(Scope.Thread)
+  public static class CursorState {
+
+    @Param({"50"})
+    public int pageSize;
+
+    private EhcacheCursor<Serializable, SimpleSession> cursor;
+
+    EhcacheCursor<Serializable, SimpleSession> cursor(TieredCacheState state) {
+      if (cursor == null || !cursor.hasNext()) {
+        cursor = state.cache.cursor();
+      }
+      return cursor;
+    }
+  }
+
+  @Benchmark
+  public Map<Serializable, SimpleSession> firstPage(TieredCacheState state, CursorState cursorState) {
+    return state.cache.cursor().nextPage(cursorState.pageSize);
+  }
+
+  @Benchmark
+  public Map<Serializable, SimpleSession> nextPage(TieredCacheState state, CursorState cursorState) {
+    return cursorState.cursor(state).nextPage(cursorState.pageSize);
+  }
+
+  /**
+   * Reads a page the way it had to be done without a cursor: by skipping the previous pages of a full traversal,
+   * here the middle page of the cache.
+   */
+  @Benchmark
+  public int middlePageWithoutCursor(TieredCacheState state, CursorState cursorState) {
+    int skip = state.keySpace / 2;
+    int read = 0;
+    for (Serializable key : state.cache.keys()) {
+      if (read++ >= skip + cursorState.pageSize) {
+        break;
+      }
+    }
+    return read;
+  }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright Terracotta, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ehcache.integrations.shiro;
+
+import org.apache.shiro.session.mgt.SimpleSession;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the {@link EhcacheShiro} operations over the tier topologies and key spaces of {@link TieredCacheState}.
+ * <P>
+ * A key space larger than the heap tier of the {@code HEAP} topology leaves most sessions evicted, so {@link #get}
+ * reports its hits and misses next to its score.
+ * </P>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EhcacheShiroBenchmark {
+
+  /**
+   * Hits and misses of {@link #get}, reported as extra results of the benchmark.
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class GetCounters {
+
+    public long hits;
+
+    public long misses;
+  }
+
+  @Benchmark
+  public SimpleSession get(TieredCacheState state, GetCounters counters) {
+    SimpleSession session = state.cache.get(state.randomKey());
+    if (session == null) {
+      counters.misses++;
+    } else {
+      counters.hits++;
+    }
+    return session;
+  }
+
+  @Benchmark
+  public SimpleSession put(TieredCacheState state) {
+    String key = state.randomKey();
+    return state.cache.put(key, TieredCacheState.newSession(key));
+  }
+
+  /**
+   * Removes a random session and puts it back, so that the key space stays stable: the score includes the
+   * re-insertion.
+   */
+  @Benchmark
+  public SimpleSession removeAndRestore(TieredCacheState state) {
+    String key = state.randomKey();
+    SimpleSession removed = state.cache.remove(key);
+    state.cache.put(key, removed == null ? TieredCacheState.newSession(key) : removed);
+    return removed;
+  }
+
+  @Benchmark
+  public int size(TieredCacheState state) {
+    return state.cache.size();
+  }
+
+  @Benchmark
+  public void keys(TieredCacheState state, Blackhole blackhole) {
+    for (Serializable key : state.cache.keys()) {
+      blackhole.consume(key);
+    }
+  }
+
+  @Benchmark
+  public void values(TieredCacheState state, Blackhole blackhole) {
+    for (SimpleSession value : state.cache.values()) {
+      blackhole.consume(value);
+    }
+  }
+}
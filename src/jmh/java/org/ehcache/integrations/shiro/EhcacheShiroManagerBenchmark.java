@@ -0,0 +1,86 @@
+/**
+ * Copyright Terracotta, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ehcache.integrations.shiro;
+
+import org.apache.shiro.cache.Cache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link EhcacheShiroManager#getCache(String)} under contention, against the un-memoized lookup path
+ * (typed {@code getCache} on the Ehcache manager plus a fresh wrapper) it replaces.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EhcacheShiroManagerBenchmark {
+
+  @Param({"1", "16"})
+  public int cacheCount;
+
+  private EhcacheShiroManager manager;
+
+  private String[] names;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    manager = new EhcacheShiroManager();
+    manager.init();
+
+    names = new String[cacheCount];
+    for (int i = 0; i < cacheCount; i++) {
+      names[i] = "benchmarkCache-" + i;
+      manager.getCache(names[i]);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    manager.destroy();
+  }
+
+  @Benchmark
+  public Cache<Object, Object> memoizedGetCache() {
+    return manager.getCache(nextName());
+  }
+
+  @Benchmark
+  public Cache<Object, Object> unmemoizedGetCache() {
+    return new EhcacheShiro<Object, Object>(manager.getCacheManager().getCache(nextName(), Object.class, Object.class));
+  }
+
+  private String nextName() {
+    return names[ThreadLocalRandom.current().nextInt(names.length)];
+  }
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright Terracotta, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ehcache.integrations.shiro;
+
+import org.apache.shiro.session.mgt.SimpleSession;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.Serializable;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the {@link EhcacheShiro.PutMode}s, with and without
+ * {@link EhcacheShiro#setTouchCoalescing(Duration) touch coalescing}, on the default heap+disk
+ * {@code shiro-activeSessionCache} while many threads touch sessions, the way Shiro's session DAO does on each request.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EhcacheShiroPutBenchmark {
+
+  @Param({"RETURN_PREVIOUS", "BLIND"})
+  public EhcacheShiro.PutMode putMode;
+
+  @Param({"false", "true"})
+  public boolean touchCoalescing;
+
+  @Param({"1000", "50000"})
+  public int sessionCount;
+
+  private EhcacheShiroManager manager;
+
+  private EhcacheShiro<Serializable, SimpleSession> cache;
+
+  private SimpleSession[] sessions;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    manager = new EhcacheShiroManager();
+    manager.init();
+
+    cache = (EhcacheShiro<Serializable, SimpleSession>) manager.<Serializable, SimpleSession>getCache("shiro-activeSessionCache");
+    cache.setPutMode(putMode);
+    cache.clear();
+    if (touchCoalescing) {
+      cache.setTouchCoalescing(Duration.ofSeconds(10));
+    }
+
+    sessions = new SimpleSession[sessionCount];
+    for (int i = 0; i < sessionCount; i++) {
+      SimpleSession session = new SimpleSession("127.0.0.1");
+      session.setId("session-" + i);
+      session.setAttribute("user", "user-" + i);
+      sessions[i] = session;
+      cache.put(session.getId(), session);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    cache.clear();
+    manager.destroy();
+  }
+
+  @Benchmark
+  public SimpleSession touchSession() {
+    SimpleSession session = sessions[ThreadLocalRandom.current().nextInt(sessions.length)];
+    session.touch();
+    return cache.put(session.getId(), session);
+  }
+}
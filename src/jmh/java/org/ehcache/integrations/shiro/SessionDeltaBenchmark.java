@@ -0,0 +1,124 @@
+/**
+ * Copyright Terracotta, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.ehcache.integrations.shiro;
+
+import org.apache.shiro.session.mgt.SimpleSession;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares reading a session with many map attributes, reading one of them, replacing another and writing the session
+ * back, with and without {@link EhcacheShiro#setDeltaStorage(boolean) delta storage} on the default heap+disk
+ * {@code shiro-activeSessionCache}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SessionDeltaBenchmark {
+
+  @Param({"false", "true"})
+  public boolean deltaStorage;
+
+  @Param({"10", "50"})
+  public int attributeCount;
+
+  @Param({"16", "64"})
+  public int attributeEntries;
+
+  private static final int SESSION_COUNT = 1000;
+
+  private EhcacheShiroManager manager;
+
+  private EhcacheShiro<Serializable, Object> cache;
+
+  private String[] ids;
+
+  private Object[] locks;
+
+  private Object[] values;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    manager = new EhcacheShiroManager();
+    manager.init();
+
+    cache = (EhcacheShiro<Serializable, Object>) manager.<Serializable, Object>getCache("shiro-activeSessionCache");
+    cache.clear();
+    cache.setPutMode(EhcacheShiro.PutMode.BLIND);
+    cache.setDeltaStorage(deltaStorage);
+
+    values = new Object[32];
+    for (int v = 0; v < values.length; v++) {
+      HashMap<String, Integer> value = new HashMap<String, Integer>();
+      for (int e = 0; e < attributeEntries; e++) {
+        value.put("entry-" + e, v * attributeEntries + e);
+      }
+      values[v] = value;
+    }
+
+    ids = new String[SESSION_COUNT];
+    locks = new Object[SESSION_COUNT];
+    for (int i = 0; i < SESSION_COUNT; i++) {
+      SimpleSession session = new SimpleSession("127.0.0.1");
+      session.setId("session-" + i);
+      for (int a = 0; a < attributeCount; a++) {
+        session.setAttribute("attribute-" + a, values[a % values.length]);
+      }
+      ids[i] = (String) session.getId();
+      locks[i] = new Object();
+      cache.put(session.getId(), session);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    cache.clear();
+    manager.destroy();
+  }
+
+  @Benchmark
+  public Object updateOneAttribute() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    int index = random.nextInt(ids.length);
+    synchronized (locks[index]) {
+      SimpleSession session = (SimpleSession) cache.get(ids[index]);
+      session.getAttribute("attribute-0");
+      session.setAttribute("attribute-" + random.nextInt(attributeCount), values[random.nextInt(values.length)]);
+      return cache.put(ids[index], session);
+    }
+  }
+}
@@ -0,0 +1,170 @@
+/**
+ * Copyright Terracotta, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.ehcache.integrations.shiro;
+
+import org.apache.shiro.session.mgt.SimpleSession;
+import org.apache.shiro.subject.SimplePrincipalCollection;
+import org.apache.shiro.subject.support.DefaultSubjectContext;
+import org.ehcache.CacheManager;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.CacheManagerBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a request trace mixing logged-in users and anonymous crawler sessions against a full heap-only session
+ * cache, with and without the {@link AuthenticatedSessionEvictionAdvisor}.
+ * <P>
+ * Each user request reads the user's session, counting a {@code userHits} or a {@code userMisses} secondary result,
+ * and a miss logs the user in again. Each anonymous request creates a new session. The hit ratio of logged-in users
+ * is {@code userHits / (userHits + userMisses)}.
+ * </P>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SessionEvictionReplayBenchmark {
+
+  /**
+   * Replays the trace from a per thread position and counts the session hits and misses of logged-in users.
+   */
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  @State(Scope.Thread)
+  public static class Replay {
+
+    public long userHits;
+
+    public long userMisses;
+
+    private int position;
+
+    private long anonymousSessions;
+
+    private String threadName;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+      threadName = Thread.currentThread().getName();
+      position = new Random().nextInt(TRACE_LENGTH);
+    }
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      userHits = 0;
+      userMisses = 0;
+    }
+  }
+
+  static final int CACHE_ENTRIES = 10000;
+
+  static final int USERS = 8000;
+
+  static final int TRACE_LENGTH = 1 << 20;
+
+  @Param({"false", "true"})
+  public boolean evictionAdvisor;
+
+  @Param({"50", "90"})
+  public int anonymousPercent;
+
+  private CacheManager cacheManager;
+
+  private EhcacheShiro<Object, Object> cache;
+
+  private int[] trace;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    CacheConfigurationBuilder<Object, Object> configuration = CacheConfigurationBuilder.newCacheConfigurationBuilder(
+            Object.class, Object.class, ResourcePoolsBuilder.heap(CACHE_ENTRIES));
+    if (evictionAdvisor) {
+      configuration = configuration.withEvictionAdvisor(new AuthenticatedSessionEvictionAdvisor());
+    }
+    cacheManager = CacheManagerBuilder.newCacheManagerBuilder().withCache("sessions", configuration).build(true);
+    cache = new EhcacheShiro<Object, Object>(cacheManager.getCache("sessions", Object.class, Object.class));
+    cache.setPutMode(EhcacheShiro.PutMode.BLIND);
+
+    Random random = new Random(42);
+    trace = new int[TRACE_LENGTH];
+    for (int i = 0; i < TRACE_LENGTH; i++) {
+      // users are skewed towards low indexes: some users are much more active than others
+      trace[i] = random.nextInt(100) < anonymousPercent ? -1 : random.nextInt(random.nextInt(USERS) + 1);
+    }
+    for (int user = 0; user < USERS; user++) {
+      cache.put(userId(user), userSession(user));
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    cacheManager.close();
+  }
+
+  @Benchmark
+  public Object request(Replay replay) {
+    int user = trace[replay.position];
+    replay.position = (replay.position + 1) & (TRACE_LENGTH - 1);
+
+    if (user < 0) {
+      String id = replay.threadName + "-anonymous-" + replay.anonymousSessions++;
+      SimpleSession session = new SimpleSession("127.0.0.1");
+      session.setId(id);
+      return cache.put(id, session);
+    }
+
+    String id = userId(user);
+    Object session = cache.get(id);
+    if (session == null) {
+      replay.userMisses++;
+      return cache.put(id, userSession(user));
+    }
+    replay.userHits++;
+    return session;
+  }
+
+  private static String userId(int user) {
+    return "user-" + user;
+  }
+
+  private static SimpleSession userSession(int user) {
+    SimpleSession session = new SimpleSession("127.0.0.1");
+    session.setId(userId(user));
+    session.setAttribute(DefaultSubjectContext.PRINCIPALS_SESSION_KEY, new SimplePrincipalCollection(userId(user), "someRealm"));
+    session.setAttribute(DefaultSubjectContext.AUTHENTICATED_SESSION_KEY, Boolean.TRUE);
+    return session;
+  }
+}
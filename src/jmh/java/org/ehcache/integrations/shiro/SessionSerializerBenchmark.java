@@ -0,0 +1,146 @@
+/**
+ * Copyright Terracotta, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ehcache.integrations.shiro;
+
+import org.apache.shiro.session.mgt.SimpleSession;
+import org.apache.shiro.subject.SimplePrincipalCollection;
+import org.ehcache.impl.serialization.CompactJavaSerializer;
+import org.ehcache.impl.serialization.TransientStateRepository;
+import org.ehcache.spi.serialization.Serializer;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link SimpleSessionSerializer}, with and without {@link CompressedSimpleSessionSerializer compression}, and
+ * Ehcache's {@link CompactJavaSerializer} on Shiro sessions: serialization and deserialization latency, and the
+ * serialized size reported as the {@code bytes} secondary result.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+@State(Scope.Thread)
+public class SessionSerializerBenchmark {
+
+  /**
+   * Serializers under comparison.
+   */
+  public enum SerializerType {
+    COMPACT_JAVA {
+      @Override
+      Serializer<Object> create() {
+        CompactJavaSerializer<Object> serializer = new CompactJavaSerializer<Object>(SerializerType.class.getClassLoader());
+        serializer.init(new TransientStateRepository());
+        return serializer;
+      }
+    },
+    SIMPLE_SESSION {
+      @Override
+      Serializer<Object> create() {
+        SimpleSessionSerializer serializer = new SimpleSessionSerializer(SerializerType.class.getClassLoader());
+        serializer.init(new TransientStateRepository());
+        return serializer;
+      }
+    },
+    COMPRESSED_SIMPLE_SESSION {
+      @Override
+      Serializer<Object> create() {
+        CompressedSimpleSessionSerializer serializer = new CompressedSimpleSessionSerializer(SerializerType.class.getClassLoader());
+        serializer.init(new TransientStateRepository());
+        return serializer;
+      }
+    };
+
+    abstract Serializer<Object> create();
+  }
+
+  /**
+   * Reports the size of the serialized session.
+   */
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  @State(Scope.Thread)
+  public static class SerializedSize {
+
+    private long bytes;
+
+    @Setup(Level.Trial)
+    public void setUp(SessionSerializerBenchmark benchmark) {
+      bytes = benchmark.serialized.remaining();
+    }
+
+    public long bytes() {
+      return bytes;
+    }
+  }
+
+  @Param({"COMPACT_JAVA", "SIMPLE_SESSION", "COMPRESSED_SIMPLE_SESSION"})
+  public SerializerType serializerType;
+
+  @Param({"2", "20", "100"})
+  public int attributeCount;
+
+  private Serializer<Object> serializer;
+
+  private SimpleSession session;
+
+  private ByteBuffer serialized;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    serializer = serializerType.create();
+
+    session = new SimpleSession("192.168.1.1");
+    session.setId(UUID.randomUUID().toString());
+    session.setAttribute("org.apache.shiro.subject.support.DefaultSubjectContext_PRINCIPALS_SESSION_KEY",
+            new SimplePrincipalCollection("someUser", "someRealm"));
+    session.setAttribute("org.apache.shiro.subject.support.DefaultSubjectContext_AUTHENTICATED_SESSION_KEY", Boolean.TRUE);
+    for (int i = 2; i < attributeCount; i++) {
+      session.setAttribute("attribute-" + i, i % 2 == 0 ? "value-" + i : new Date(i));
+    }
+
+    serialized = serializer.serialize(session);
+  }
+
+  @Benchmark
+  public ByteBuffer serialize(SerializedSize size) {
+    return serializer.serialize(session);
+  }
+
+  @Benchmark
+  public Object deserialize(SerializedSize size) throws ClassNotFoundException {
+    return serializer.read(serialized.duplicate());
+  }
+}
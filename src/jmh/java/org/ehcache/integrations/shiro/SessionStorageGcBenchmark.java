@@ -0,0 +1,126 @@
+/**
+ * Copyright Terracotta, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.ehcache.integrations.shiro;
+
+import org.apache.shiro.session.mgt.SimpleSession;
+import org.apache.shiro.subject.SimplePrincipalCollection;
+import org.apache.shiro.subject.support.DefaultSubjectContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the default heap+disk {@code shiro-activeSessionCache} with the
+ * {@link EhcacheShiroManager#setOffHeapSessionCaches(java.util.Set) off-heap session storage profile} while requests
+ * read and touch random sessions of a large population.
+ * <P>
+ * Run it with JMH's GC profiler, {@code -Djmh.args="SessionStorageGcBenchmark -prof gc"}, to get the allocation rate
+ * ({@code gc.alloc.rate}) and the time spent in garbage collection ({@code gc.time}) of each storage.
+ * </P>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx1g", "-XX:MaxDirectMemorySize=1g" })
+@State(Scope.Benchmark)
+public class SessionStorageGcBenchmark {
+
+  /**
+   * Session storages under comparison.
+   */
+  public enum Storage {
+    HEAP_DISK,
+    OFFHEAP
+  }
+
+  static final String SESSION_CACHE = "shiro-activeSessionCache";
+
+  @Param({"HEAP_DISK", "OFFHEAP"})
+  public Storage storage;
+
+  @Param({"200000"})
+  public int sessionCount;
+
+  private EhcacheShiroManager manager;
+
+  private EhcacheShiro<Object, Object> cache;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    manager = new EhcacheShiroManager();
+    if (storage == Storage.OFFHEAP) {
+      manager.setOffHeapSessionCaches(Collections.singleton(SESSION_CACHE));
+      manager.setOffHeapSessionSizeMB(512);
+    }
+    manager.init();
+
+    cache = (EhcacheShiro<Object, Object>) manager.<Object, Object>getCache(SESSION_CACHE);
+    cache.clear();
+    // blind puts, as recommended for the off-heap profile, for both storages so that only the tiers differ
+    cache.setPutMode(EhcacheShiro.PutMode.BLIND);
+    for (int i = 0; i < sessionCount; i++) {
+      cache.put(sessionId(i), newSession(i));
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    cache.clear();
+    manager.destroy();
+  }
+
+  @Benchmark
+  public Object request() {
+    String id = sessionId(ThreadLocalRandom.current().nextInt(sessionCount));
+    SimpleSession session = (SimpleSession) cache.get(id);
+    if (session == null) {
+      return null;
+    }
+    session.touch();
+    return cache.put(id, session);
+  }
+
+  private static String sessionId(int index) {
+    return "session-" + index;
+  }
+
+  private static SimpleSession newSession(int index) {
+    SimpleSession session = new SimpleSession("127.0.0.1");
+    session.setId(sessionId(index));
+    session.setAttribute(DefaultSubjectContext.PRINCIPALS_SESSION_KEY, new SimplePrincipalCollection("user-" + index, "someRealm"));
+    session.setAttribute(DefaultSubjectContext.AUTHENTICATED_SESSION_KEY, Boolean.TRUE);
+    session.setAttribute("locale", "en_US");
+    session.setAttribute("cart", "cart-" + index);
+    return session;
+  }
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright Terracotta, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ehcache.integrations.shiro;
+
+import org.apache.shiro.session.mgt.SimpleSession;
+import org.ehcache.CacheManager;
+import org.ehcache.PersistentCacheManager;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.CacheManagerBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.ehcache.config.units.EntryUnit;
+import org.ehcache.config.units.MemoryUnit;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Benchmark state holding an {@link EhcacheShiro} session cache over one of the tier topologies Shiro deployments
+ * use, pre-populated with {@code keySpace} sessions.
+ */
+@State(Scope.Benchmark)
+public class TieredCacheState {
+
+  /**
+   * Tier topologies covered by the benchmarks, all with the same heap tier as the default Shiro configuration.
+   */
+  public enum Tiers {
+    HEAP {
+      @Override
+      ResourcePoolsBuilder resourcePools() {
+        return ResourcePoolsBuilder.newResourcePoolsBuilder().heap(HEAP_ENTRIES, EntryUnit.ENTRIES);
+      }
+    },
+    HEAP_OFFHEAP {
+      @Override
+      ResourcePoolsBuilder resourcePools() {
+        return HEAP.resourcePools().offheap(256, MemoryUnit.MB);
+      }
+    },
+    HEAP_DISK {
+      @Override
+      ResourcePoolsBuilder resourcePools() {
+        return HEAP.resourcePools().disk(1, MemoryUnit.GB);
+      }
+    };
+
+    abstract ResourcePoolsBuilder resourcePools();
+  }
+
+  static final int HEAP_ENTRIES = 10000;
+
+  static final String CACHE_NAME = "benchmarkCache";
+
+  @Param({"HEAP", "HEAP_OFFHEAP", "HEAP_DISK"})
+  public Tiers tiers;
+
+  @Param({"1000", "100000"})
+  public int keySpace;
+
+  private File persistenceDirectory;
+
+  private CacheManager cacheManager;
+
+  EhcacheShiro<Serializable, SimpleSession> cache;
+
+  String[] keys;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    persistenceDirectory = Files.createTempDirectory("shiro-ehcache-benchmark").toFile();
+    cacheManager = CacheManagerBuilder.newCacheManagerBuilder()
+            .with(CacheManagerBuilder.persistence(persistenceDirectory))
+            .withCache(CACHE_NAME, CacheConfigurationBuilder.newCacheConfigurationBuilder(
+                    Serializable.class, SimpleSession.class, tiers.resourcePools()))
+            .build(true);
+    cache = new EhcacheShiro<Serializable, SimpleSession>(cacheManager.getCache(CACHE_NAME, Serializable.class, SimpleSession.class));
+
+    keys = new String[keySpace];
+    for (int i = 0; i < keySpace; i++) {
+      keys[i] = "session-" + i;
+      cache.put(keys[i], newSession(keys[i]));
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    cacheManager.close();
+    if (cacheManager instanceof PersistentCacheManager) {
+      ((PersistentCacheManager) cacheManager).destroy();
+    }
+    Files.deleteIfExists(persistenceDirectory.toPath());
+  }
+
+  String randomKey() {
+    return keys[ThreadLocalRandom.current().nextInt(keys.length)];
+  }
+
+  static SimpleSession newSession(Serializable id) {
+    SimpleSession session = new SimpleSession("127.0.0.1");
+    session.setId(id);
+    session.setAttribute("user", "user-" + id);
+    return session;
+  }
+}
@@ -0,0 +1,61 @@
+/**
+ * Copyright Terracotta, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.ehcache.integrations.shiro;
+
+import org.apache.shiro.session.Session;
+import org.apache.shiro.session.mgt.ValidatingSession;
+import org.apache.shiro.subject.support.DefaultSubjectContext;
+import org.ehcache.config.EvictionAdvisor;
+
+import java.util.Collection;
+
+/**
+ * Ehcache {@link EvictionAdvisor} keeping the sessions of logged-in users over anonymous ones.
+ * <P>
+ * Crawlers and bots create a new anonymous session on nearly every request, and under memory pressure these would
+ * otherwise evict the sessions of logged-in users, forcing them to log in again. This advisor advises against evicting
+ * sessions holding {@link DefaultSubjectContext#PRINCIPALS_SESSION_KEY principals}, that is authenticated or remembered
+ * users, unless they are stopped or expired. Anonymous sessions, invalid sessions and values that are not sessions
+ * are evicted first. Ehcache evicts an advised against entry when it finds nothing else to evict, so a cache full of
+ * authenticated sessions still evicts. To use it on the session cache:
+ * </P>
+ * <pre>
+ * &lt;eviction-advisor&gt;org.ehcache.integrations.shiro.AuthenticatedSessionEvictionAdvisor&lt;/eviction-advisor&gt;
+ * </pre>
+ */
+public class AuthenticatedSessionEvictionAdvisor implements EvictionAdvisor<Object, Object> {
+
+  public boolean adviseAgainstEviction(Object key, Object value) {
+    Collection<Object> attributeKeys;
+    if (value instanceof StoredSession) {
+      StoredSession session = (StoredSession) value;
+      if (!session.isValid()) {
+        return false;
+      }
+      attributeKeys = session.getAttributeKeys();
+    } else if (value instanceof Session) {
+      if (value instanceof ValidatingSession && !((ValidatingSession) value).isValid()) {
+        return false;
+      }
+      attributeKeys = ((Session) value).getAttributeKeys();
+    } else {
+      return false;
+    }
+    return attributeKeys != null && attributeKeys.contains(DefaultSubjectContext.PRINCIPALS_SESSION_KEY);
+  }
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright Terracotta, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ehcache.integrations.shiro;
+
+import org.apache.shiro.cache.Cache;
+import org.apache.shiro.cache.CacheException;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Extension of the Shiro {@link Cache} adding bulk operations, so that batch jobs like cache warming or mass
+ * invalidation can hand all their keys to the underlying cache at once instead of one call per key.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+public interface BulkCache<K, V> extends Cache<K, V> {
+
+  /**
+   * Returns the values mapped to the given keys.
+   *
+   * @param keys the keys to look up
+   * @return a map holding every requested key, mapped to {@code null} when absent from the cache
+   * @throws CacheException if there is a problem accessing the underlying cache system
+   */
+  Map<K, V> getAll(Set<? extends K> keys) throws CacheException;
+
+  /**
+   * Maps all the given keys to their value.
+   *
+   * @param entries the mappings to add to the cache
+   * @throws CacheException if there is a problem accessing the underlying cache system
+   */
+  void putAll(Map<? extends K, ? extends V> entries) throws CacheException;
+
+  /**
+   * Removes the mappings of all the given keys, if any.
+   *
+   * @param keys the keys to remove
+   * @throws CacheException if there is a problem accessing the underlying cache system
+   */
+  void removeAll(Set<? extends K> keys) throws CacheException;
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright Terracotta, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ehcache.integrations.shiro;
+
+import org.ehcache.spi.serialization.Serializer;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+/**
+ * Tagged binary encoding of the value types commonly found in Shiro sessions, falling back to a Java serialization
+ * based {@link Serializer} for anything else.
+ */
+class CompactObjectCodec {
+
+  private static final byte NULL = 0;
+  private static final byte STRING = 1;
+  private static final byte LONG = 2;
+  private static final byte INTEGER = 3;
+  private static final byte BOOLEAN = 4;
+  private static final byte DATE = 5;
+  private static final byte SERIALIZED = 6;
+
+  private final Serializer<Object> fallback;
+
+  CompactObjectCodec(Serializer<Object> fallback) {
+    this.fallback = fallback;
+  }
+
+  void write(DataOutput out, Object object) throws IOException {
+    if (object == null) {
+      out.writeByte(NULL);
+    } else if (object instanceof String) {
+      out.writeByte(STRING);
+      writeString(out, (String) object);
+    } else if (object instanceof Long) {
+      out.writeByte(LONG);
+      out.writeLong((Long) object);
+    } else if (object instanceof Integer) {
+      out.writeByte(INTEGER);
+      out.writeInt((Integer) object);
+    } else if (object instanceof Boolean) {
+      out.writeByte(BOOLEAN);
+      out.writeBoolean((Boolean) object);
+    } else if (object.getClass() == Date.class) {
+      out.writeByte(DATE);
+      out.writeLong(((Date) object).getTime());
+    } else {
+      out.writeByte(SERIALIZED);
+      writeSerialized(out, object);
+    }
+  }
+
+  Object read(ByteBuffer in) throws ClassNotFoundException {
+    byte tag = in.get();
+    switch (tag) {
+      case NULL:
+        return null;
+      case STRING:
+        return readString(in);
+      case LONG:
+        return in.getLong();
+      case INTEGER:
+        return in.getInt();
+      case BOOLEAN:
+        return in.get() != 0;
+      case DATE:
+        return new Date(in.getLong());
+      case SERIALIZED:
+        return readSerialized(in);
+      default:
+        throw new IllegalStateException("Unknown object tag " + tag);
+    }
+  }
+
+  /**
+   * Writes the given object through the fallback serializer, prefixed with its serialized length.
+   */
+  void writeSerialized(DataOutput out, Object object) throws IOException {
+    ByteBuffer serialized = fallback.serialize(object);
+    out.writeInt(serialized.remaining());
+    if (serialized.hasArray()) {
+      out.write(serialized.array(), serialized.arrayOffset() + serialized.position(), serialized.remaining());
+    } else {
+      byte[] bytes = new byte[serialized.remaining()];
+      serialized.get(bytes);
+      out.write(bytes);
+    }
+  }
+
+  Object readSerialized(ByteBuffer in) throws ClassNotFoundException {
+    int length = in.getInt();
+    ByteBuffer serialized = in.slice();
+    serialized.limit(length);
+    in.position(in.position() + length);
+    return fallback.read(serialized);
+  }
+
+  static void writeString(DataOutput out, String string) throws IOException {
+    byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  static String readString(ByteBuffer in) {
+    int length = in.getInt();
+    String string;
+    if (in.hasArray()) {
+      string = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+      in.position(in.position() + length);
+    } else {
+      byte[] bytes = new byte[length];
+      in.get(bytes);
+      string = new String(bytes, StandardCharsets.UTF_8);
+    }
+    return string;
+  }
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright Terracotta, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.ehcache.integrations.shiro;
+
+/**
+ * {@link SimpleSessionSerializer} whose payloads of {@value #DEFAULT_THRESHOLD} bytes and more are compressed by a
+ * {@link CompressingSerializer}.
+ * <P>
+ * Like {@code SimpleSessionSerializer}, it can be used for the {@code java.lang.Object} values of any Shiro cache, to
+ * fit more sessions or authorization infos in an off-heap or disk tier at the cost of some CPU on writes and on reads
+ * missing the heap tier:
+ * </P>
+ * <pre>
+ * &lt;value-type serializer="org.ehcache.integrations.shiro.CompressedSimpleSessionSerializer"&gt;java.lang.Object&lt;/value-type&gt;
+ * </pre>
+ * <P>
+ * Its payloads are not readable by {@code SimpleSessionSerializer}, so a persistent tier must be cleared when
+ * switching from one to the other.
+ * </P>
+ */
+public class CompressedSimpleSessionSerializer extends CompressingSerializer<Object> {
+
+  /**
+   * The size, in bytes, from which session payloads are compressed.
+   */
+  public static final int DEFAULT_THRESHOLD = 512;
+
+  /**
+   * Creates a serializer resolving Java serialized classes with the given {@code ClassLoader}.
+   *
+   * @param classLoader the class loader to use
+   */
+  public CompressedSimpleSessionSerializer(ClassLoader classLoader) {
+    super(new SimpleSessionSerializer(classLoader), DEFAULT_THRESHOLD);
+  }
+}
@@ -0,0 +1,178 @@
+/**
+ * Copyright Terracotta, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.ehcache.integrations.shiro;
+
+import org.ehcache.spi.persistence.StateRepository;
+import org.ehcache.spi.serialization.Serializer;
+import org.ehcache.spi.serialization.SerializerException;
+import org.ehcache.spi.serialization.StatefulSerializer;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Ehcache {@link Serializer} decorator compressing the serialized form of large values with the JDK's
+ * {@link Deflater}.
+ * <P>
+ * Every payload starts with a header byte telling whether it is stored raw or deflated, so both kinds coexist in a
+ * tier. Payloads smaller than the threshold are stored raw, as the deflate stream overhead would outweigh the gain, as
+ * are payloads that do not compress. Deflated payloads store their raw length after the header, so that reads
+ * allocate the exact buffer the delegate reads from. Compression uses the fastest deflate level: session attributes,
+ * class descriptors and principal names are repetitive enough that higher levels mostly cost CPU. The zlib checksum
+ * of deflated payloads detects their corruption in a persistent tier.
+ * </P>
+ * <P>
+ * Ehcache instantiates serializers by class, so this serializer is configured through subclasses like
+ * {@link CompressedSimpleSessionSerializer}.
+ * </P>
+ */
+public class CompressingSerializer<T> implements StatefulSerializer<T> {
+
+  private static final byte RAW = 0;
+  private static final byte DEFLATED = 1;
+
+  private static final int DEFLATED_HEADER_LENGTH = 5;
+
+  private static final ThreadLocal<Deflater> DEFLATERS = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+  private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(() -> new Inflater());
+
+  private final Serializer<T> delegate;
+
+  private final int threshold;
+
+  /**
+   * Creates a serializer compressing the payloads of the given serializer from the given size.
+   *
+   * @param delegate the serializer producing the payloads to compress
+   * @param threshold the size, in bytes, from which payloads are compressed
+   */
+  public CompressingSerializer(Serializer<T> delegate, int threshold) {
+    if (delegate == null) {
+      throw new IllegalArgumentException("Serializer argument cannot be null.");
+    }
+    if (threshold < 0) {
+      throw new IllegalArgumentException("Compression threshold cannot be negative.");
+    }
+    this.delegate = delegate;
+    this.threshold = threshold;
+  }
+
+  public void init(StateRepository stateRepository) {
+    if (delegate instanceof StatefulSerializer) {
+      ((StatefulSerializer<T>) delegate).init(stateRepository);
+    }
+  }
+
+  public ByteBuffer serialize(T object) throws SerializerException {
+    ByteBuffer raw = delegate.serialize(object);
+    int length = raw.remaining();
+    byte[] input;
+    int offset;
+    if (raw.hasArray()) {
+      input = raw.array();
+      offset = raw.arrayOffset() + raw.position();
+    } else {
+      input = new byte[length];
+      raw.duplicate().get(input);
+      offset = 0;
+    }
+
+    if (length >= threshold && length > DEFLATED_HEADER_LENGTH) {
+      byte[] output = new byte[length];
+      Deflater deflater = DEFLATERS.get();
+      try {
+        deflater.setInput(input, offset, length);
+        deflater.finish();
+        int deflated = deflater.deflate(output, DEFLATED_HEADER_LENGTH, length - DEFLATED_HEADER_LENGTH);
+        if (deflater.finished()) {
+          ByteBuffer buffer = ByteBuffer.wrap(output, 0, DEFLATED_HEADER_LENGTH + deflated);
+          buffer.put(DEFLATED).putInt(length);
+          buffer.position(0);
+          return buffer;
+        }
+      } finally {
+        deflater.reset();
+      }
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocate(1 + length);
+    buffer.put(RAW).put(input, offset, length);
+    buffer.flip();
+    return buffer;
+  }
+
+  public T read(ByteBuffer binary) throws ClassNotFoundException, SerializerException {
+    return delegate.read(decode(binary));
+  }
+
+  public boolean equals(T object, ByteBuffer binary) throws ClassNotFoundException, SerializerException {
+    return delegate.equals(object, decode(binary));
+  }
+
+  private static ByteBuffer decode(ByteBuffer binary) throws SerializerException {
+    try {
+      byte header = binary.get();
+      switch (header) {
+        case RAW:
+          return binary;
+        case DEFLATED:
+          return inflate(binary);
+        default:
+          throw new SerializerException("Unknown compression header " + header);
+      }
+    } catch (BufferUnderflowException e) {
+      throw new SerializerException(e);
+    }
+  }
+
+  private static ByteBuffer inflate(ByteBuffer binary) throws SerializerException {
+    int length = binary.getInt();
+    if (length < 0) {
+      throw new SerializerException("Invalid uncompressed length " + length);
+    }
+    byte[] input;
+    int offset;
+    int inputLength = binary.remaining();
+    if (binary.hasArray()) {
+      input = binary.array();
+      offset = binary.arrayOffset() + binary.position();
+    } else {
+      input = new byte[inputLength];
+      binary.duplicate().get(input);
+      offset = 0;
+    }
+
+    byte[] output = new byte[length];
+    Inflater inflater = INFLATERS.get();
+    try {
+      inflater.setInput(input, offset, inputLength);
+      int inflated = inflater.inflate(output);
+      if (inflated != length || !inflater.finished()) {
+        throw new SerializerException("Truncated compressed payload");
+      }
+    } catch (DataFormatException e) {
+      throw new SerializerException(e);
+    } finally {
+      inflater.reset();
+    }
+    return ByteBuffer.wrap(output);
+  }
+}
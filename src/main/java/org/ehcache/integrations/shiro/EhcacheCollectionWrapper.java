@@ -19,7 +19,11 @@ package org.ehcache.integrations.shiro;
 import org.apache.shiro.cache.Cache;
 
 import java.util.AbstractCollection;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
 
 abstract class EhcacheCollectionWrapper<E> extends AbstractCollection<E> {
 
@@ -41,6 +45,47 @@ abstract class EhcacheCollectionWrapper<E> extends AbstractCollection<E> {
     return !ehcacheCache.iterator().hasNext();
   }
 
+  /**
+   * Returns a {@link Spliterator} that can be split for parallel streams, sized from the cache entry counter when
+   * there is one, without ever iterating the cache just to compute {@link #size()}.
+   */
+  @Override
+  public Spliterator<E> spliterator() {
+    return new EhcacheSpliterator<E>(iterator(), estimatedSize(), 0);
+  }
+
+  long estimatedSize() {
+    return shiroCache instanceof EhcacheShiro ? ((EhcacheShiro) shiroCache).estimatedSize() : Long.MAX_VALUE;
+  }
+
+  /**
+   * Returns a snapshot of this collection, read in a single pass over the cache.
+   * <P>
+   * {@code AbstractCollection.toArray} sizes its array with {@link #size()} before iterating, which reads the whole
+   * cache twice unless the entries are counted.
+   * </P>
+   */
+  @Override
+  public Object[] toArray() {
+    return snapshot(iterator(), estimatedSize()).toArray();
+  }
+
+  /**
+   * Returns a snapshot of this collection, read in a single pass over the cache, see {@link #toArray()}.
+   */
+  @Override
+  public <T> T[] toArray(T[] a) {
+    return snapshot(iterator(), estimatedSize()).toArray(a);
+  }
+
+  static <E> List<E> snapshot(Iterator<E> iterator, long estimatedSize) {
+    List<E> snapshot = new ArrayList<E>(estimatedSize < Integer.MAX_VALUE ? (int) estimatedSize : 16);
+    while (iterator.hasNext()) {
+      snapshot.add(iterator.next());
+    }
+    return snapshot;
+  }
+
   @Override
   public boolean addAll(Collection<? extends E> c) {
     throw new UnsupportedOperationException("addAll");
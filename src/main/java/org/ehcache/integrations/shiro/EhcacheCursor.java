@@ -0,0 +1,96 @@
+/**
+ * Copyright Terracotta, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ehcache.integrations.shiro;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Cursor reading the entries of an {@link EhcacheShiro} cache a page at a time.
+ * <P>
+ * A cursor is obtained from {@link EhcacheShiro#cursor()} and each call to {@link #nextPage(int)} reads at most the
+ * requested number of entries from the cache tiers, resuming where the previous page ended, so the cost of a page does
+ * not depend on the size of the cache. A cursor can be used from several threads.
+ * </P>
+ * <P>
+ * The position of a cursor is the live iterator of the cache it was opened on, which references the cache and its
+ * tiers until the cursor is dropped. A cursor is therefore not serializable, cannot be stored in a session or in any
+ * storage that may be replicated or persisted, and stops being usable once the cache is closed. Keep it in memory for
+ * the duration of a traversal only, and open a new cursor to restart one.
+ * </P>
+ * <P>
+ * The traversal is weakly consistent, like the one of {@link EhcacheShiro#keys()}: it never fails because of concurrent
+ * modifications, and an entry added, removed, evicted or expired during the traversal may or may not be returned.
+ * Entries are returned in the order of the underlying Ehcache iterator, which does not guarantee that each entry is
+ * returned exactly once while the cache is modified, so callers that need distinct entries should de-duplicate on the
+ * key. Values are read when their page is read, so a page can hold sessions updated after the cursor was opened.
+ * </P>
+ */
+public final class EhcacheCursor<K, V> {
+
+  private final Iterator<org.ehcache.Cache.Entry<K, V>> iterator;
+
+  private final Function<V, V> valueMapper;
+
+  private long position;
+
+  EhcacheCursor(Iterator<org.ehcache.Cache.Entry<K, V>> iterator, Function<V, V> valueMapper) {
+    this.iterator = iterator;
+    this.valueMapper = valueMapper;
+  }
+
+  /**
+   * Reads the next page of entries.
+   *
+   * @param pageSize the maximum number of entries to read
+   * @return the entries read, in traversal order, empty once the traversal is complete
+   * @throws IllegalArgumentException if {@code pageSize} is not positive
+   */
+  public synchronized Map<K, V> nextPage(int pageSize) {
+    if (pageSize <= 0) {
+      throw new IllegalArgumentException("Page size must be positive.");
+    }
+
+    Map<K, V> page = new LinkedHashMap<K, V>(Math.min(pageSize, 1024));
+    while (page.size() < pageSize && iterator.hasNext()) {
+      org.ehcache.Cache.Entry<K, V> entry = iterator.next();
+      page.put(entry.getKey(), valueMapper.apply(entry.getValue()));
+    }
+    position += page.size();
+    return page;
+  }
+
+  /**
+   * Returns whether more entries may be read from this cursor.
+   *
+   * @return {@code false} once the traversal is complete
+   */
+  public synchronized boolean hasNext() {
+    return iterator.hasNext();
+  }
+
+  /**
+   * Returns the number of entries read so far from this cursor.
+   *
+   * @return the position of the cursor in the traversal
+   */
+  public synchronized long getPosition() {
+    return position;
+  }
+}
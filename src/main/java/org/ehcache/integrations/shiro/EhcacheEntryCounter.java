@@ -0,0 +1,140 @@
+/**
+ * Copyright Terracotta, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ehcache.integrations.shiro;
+
+import org.ehcache.event.CacheEvent;
+import org.ehcache.event.CacheEventListener;
+import org.ehcache.event.EventFiring;
+import org.ehcache.event.EventOrdering;
+import org.ehcache.event.EventType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of the number of mappings of an {@link org.ehcache.Cache} from its creation, removal, expiry and
+ * eviction events.
+ * <p>
+ * The count is approximate. It is seeded by iterating over the cache, and the mutations made while an iteration is
+ * running may or may not be seen by it, so each of them can be counted twice or not at all. A {@code clear()} made
+ * directly on the Ehcache cache does not emit events either. The count is therefore reconciled with a new iteration
+ * every reconcile interval on a single daemon thread, which bounds how long such an error lasts. The owner of the
+ * counter is responsible for calling {@link #reset()} when it clears the cache.
+ * </p>
+ */
+class EhcacheEntryCounter<K, V> implements CacheEventListener<K, V> {
+
+  static final long DEFAULT_RECONCILE_INTERVAL_MILLIS = 5 * 60 * 1000L;
+
+  private static final Logger log = LoggerFactory.getLogger(EhcacheEntryCounter.class);
+
+  private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+  private static final EnumSet<EventType> EVENT_TYPES = EnumSet.of(EventType.CREATED, EventType.REMOVED,
+          EventType.EXPIRED, EventType.EVICTED);
+
+  private final org.ehcache.Cache<K, V> cache;
+
+  private final long reconcileIntervalMillis;
+
+  private final AtomicLong count = new AtomicLong();
+
+  private ScheduledExecutorService scheduler;
+
+  EhcacheEntryCounter(org.ehcache.Cache<K, V> cache, long reconcileIntervalMillis) {
+    if (reconcileIntervalMillis <= 0) {
+      throw new IllegalArgumentException("Reconcile interval must be positive.");
+    }
+    this.cache = cache;
+    this.reconcileIntervalMillis = reconcileIntervalMillis;
+  }
+
+  /**
+   * Registers this counter on the cache, seeds it with the number of mappings currently present and starts
+   * reconciling it periodically.
+   */
+  synchronized void register() {
+    cache.getRuntimeConfiguration().registerCacheEventListener(this, EventOrdering.UNORDERED,
+            EventFiring.SYNCHRONOUS, EVENT_TYPES);
+    reconcile();
+
+    scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "ehcache-shiro-size-reconcile-" + THREAD_COUNT.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    scheduler.scheduleWithFixedDelay(() -> {
+      try {
+        reconcile();
+      } catch (RuntimeException e) {
+        log.warn("Reconciling the size of cache [" + cache + "] failed", e);
+      }
+    }, reconcileIntervalMillis, reconcileIntervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  synchronized void deregister() {
+    scheduler.shutdown();
+    cache.getRuntimeConfiguration().deregisterCacheEventListener(this);
+  }
+
+  /**
+   * Replaces the count with the number of mappings found by iterating over the cache.
+   */
+  void reconcile() {
+    long size = 0;
+    Iterator<org.ehcache.Cache.Entry<K, V>> iterator = cache.iterator();
+    while (iterator.hasNext()) {
+      iterator.next();
+      size++;
+    }
+    count.set(size);
+  }
+
+  void reset() {
+    count.set(0);
+  }
+
+  int get() {
+    long current = count.get();
+    if (current < 0) {
+      return 0;
+    }
+    return current > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) current;
+  }
+
+  public void onEvent(CacheEvent<? extends K, ? extends V> event) {
+    switch (event.getType()) {
+      case CREATED:
+        count.incrementAndGet();
+        break;
+      case REMOVED:
+      case EXPIRED:
+      case EVICTED:
+        count.decrementAndGet();
+        break;
+      default:
+        break;
+    }
+  }
+}
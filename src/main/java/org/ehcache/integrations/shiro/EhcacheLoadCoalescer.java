@@ -0,0 +1,164 @@
+/**
+ * Copyright Terracotta, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ehcache.integrations.shiro;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the keys being loaded after a cache miss, so that concurrent misses on the same key wait for a single load.
+ * <P>
+ * The first thread missing a key claims it and is expected to load and put the value, any other thread missing the
+ * same key then waits until the key is {@link #complete(Object) completed}. A claim lapses after the load timeout, so
+ * a loader failing without putting a value only delays the waiting threads. Lapsed claims are released by the next
+ * calls, whether or not another thread misses the same key, so misses that are never filled, such as lookups of
+ * unknown session ids, do not accumulate. At most {@code maxClaims} keys are tracked at once: beyond that, misses are
+ * loaded without coalescing.
+ * </P>
+ */
+class EhcacheLoadCoalescer<K> {
+
+  static final long DEFAULT_LOAD_TIMEOUT_MILLIS = 1000L;
+
+  static final int DEFAULT_MAX_CLAIMS = 10000;
+
+  private final ConcurrentMap<K, Load> loads = new ConcurrentHashMap<K, Load>();
+
+  private final Queue<Load> claims = new ConcurrentLinkedQueue<Load>();
+
+  private final long loadTimeoutNanos;
+
+  private final int maxClaims;
+
+  EhcacheLoadCoalescer(long loadTimeoutMillis) {
+    this(loadTimeoutMillis, DEFAULT_MAX_CLAIMS);
+  }
+
+  EhcacheLoadCoalescer(long loadTimeoutMillis, int maxClaims) {
+    if (loadTimeoutMillis <= 0) {
+      throw new IllegalArgumentException("Load timeout must be positive.");
+    }
+    if (maxClaims <= 0) {
+      throw new IllegalArgumentException("Maximum claims must be positive.");
+    }
+    this.loadTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(loadTimeoutMillis);
+    this.maxClaims = maxClaims;
+  }
+
+  /**
+   * Claims the load of the given key, or waits for the load in progress on another thread.
+   *
+   * @param key the missing key
+   * @return {@code true} if the calling thread should load the key, {@code false} if a concurrent load completed and
+   * the cache should be read again
+   */
+  boolean claimOrAwait(K key) {
+    releaseLapsedClaims();
+    while (true) {
+      Load load = loads.get(key);
+      if (load == null) {
+        if (loads.size() >= maxClaims) {
+          return true;
+        }
+        Load claim = new Load(key);
+        load = loads.putIfAbsent(key, claim);
+        if (load == null) {
+          claims.offer(claim);
+          return true;
+        }
+      }
+      if (load.owner == Thread.currentThread()) {
+        return true;
+      }
+
+      long remaining = load.deadline - System.nanoTime();
+      if (remaining <= 0) {
+        Load claim = new Load(key);
+        if (loads.replace(key, load, claim)) {
+          claims.offer(claim);
+          load.latch.countDown();
+          return true;
+        }
+        continue;
+      }
+
+      try {
+        if (load.latch.await(remaining, TimeUnit.NANOSECONDS)) {
+          return false;
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Releases the claims whose load timeout elapsed, oldest first. Claims are queued in claim order and share the same
+   * timeout, so this stops at the first claim still running.
+   */
+  private void releaseLapsedClaims() {
+    long now = System.nanoTime();
+    for (Load load = claims.peek(); load != null && now - load.deadline >= 0; load = claims.peek()) {
+      if (claims.remove(load) && loads.remove(load.key, load)) {
+        load.latch.countDown();
+      }
+    }
+  }
+
+  /**
+   * Completes the load of the given key, if any, releasing the threads waiting for it.
+   *
+   * @param key the key written or removed
+   */
+  void complete(K key) {
+    Load load = loads.remove(key);
+    if (load != null) {
+      load.latch.countDown();
+    }
+  }
+
+  void completeAll() {
+    for (K key : loads.keySet()) {
+      complete(key);
+    }
+  }
+
+  int size() {
+    releaseLapsedClaims();
+    return loads.size();
+  }
+
+  private class Load {
+
+    private final K key;
+
+    private final Thread owner = Thread.currentThread();
+
+    private final long deadline = System.nanoTime() + loadTimeoutNanos;
+
+    private final CountDownLatch latch = new CountDownLatch(1);
+
+    Load(K key) {
+      this.key = key;
+    }
+  }
+}
@@ -0,0 +1,249 @@
+/**
+ * Copyright Terracotta, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ehcache.integrations.shiro;
+
+import org.ehcache.event.CacheEvent;
+import org.ehcache.event.CacheEventListener;
+import org.ehcache.event.EventFiring;
+import org.ehcache.event.EventOrdering;
+import org.ehcache.event.EventType;
+import org.ehcache.expiry.ExpiryPolicy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Reloads the entries of an {@link org.ehcache.Cache} that are read shortly before they expire.
+ * <P>
+ * The expiration time of each entry is computed from the {@link ExpiryPolicy} of the cache when the entry is created
+ * or updated, as reported by the cache events, and when it is read, for policies that set an expiry on access such as
+ * time-to-idle. A read leaving the entry within the refresh window before that time submits a reload of the entry
+ * to a bounded executor and returns immediately: readers keep getting the current value until the reloaded one,
+ * handed to the writer of the owner, replaces it. With a time-to-idle longer than the window, reads keep entries
+ * alive by themselves and never trigger a reload. Reloads beyond the capacity of the executor are dropped, and a
+ * reload returning {@code null} or failing leaves the entry to expire. As with {@link EhcacheEntryCounter}, the owner is responsible
+ * for calling {@link #reset()} when it clears the cache.
+ * </P>
+ */
+class EhcacheRefresher<K, V> implements CacheEventListener<K, V> {
+
+  static final int REFRESH_THREADS = 2;
+  static final int REFRESH_QUEUE_SIZE = 1024;
+
+  private static final Logger log = LoggerFactory.getLogger(EhcacheRefresher.class);
+
+  private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+  private static final EnumSet<EventType> EVENT_TYPES = EnumSet.of(EventType.CREATED, EventType.UPDATED,
+          EventType.REMOVED, EventType.EXPIRED, EventType.EVICTED);
+
+  private final org.ehcache.Cache<K, V> cache;
+
+  private final Function<? super K, ? extends V> loader;
+
+  private final BiConsumer<K, V> writer;
+
+  private final long windowNanos;
+
+  private final ExecutorService executor;
+
+  private final ConcurrentMap<K, Long> deadlines = new ConcurrentHashMap<K, Long>();
+
+  private final Set<K> refreshing = ConcurrentHashMap.newKeySet();
+
+  EhcacheRefresher(org.ehcache.Cache<K, V> cache, Function<? super K, ? extends V> loader, BiConsumer<K, V> writer,
+                   Duration window, ExecutorService executor) {
+    if (window == null || window.isNegative() || window.isZero()) {
+      throw new IllegalArgumentException("Refresh window must be a positive duration.");
+    }
+    this.cache = cache;
+    this.loader = loader;
+    this.writer = writer;
+    this.windowNanos = window.toNanos();
+    this.executor = executor;
+  }
+
+  /**
+   * Creates the bounded executor used by default to reload entries: a couple of daemon threads and a bounded queue,
+   * discarding the reloads that do not fit.
+   */
+  static ExecutorService newExecutor() {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(REFRESH_THREADS, REFRESH_THREADS, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(REFRESH_QUEUE_SIZE), new ThreadFactory() {
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "ehcache-shiro-refresh-" + THREAD_COUNT.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    }, new ThreadPoolExecutor.AbortPolicy());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /**
+   * Registers this refresher on the cache and computes the expiration time of the entries currently present as if
+   * they had just been created.
+   */
+  void register() {
+    cache.getRuntimeConfiguration().registerCacheEventListener(this, EventOrdering.ORDERED,
+            EventFiring.SYNCHRONOUS, EVENT_TYPES);
+
+    Iterator<org.ehcache.Cache.Entry<K, V>> iterator = cache.iterator();
+    while (iterator.hasNext()) {
+      org.ehcache.Cache.Entry<K, V> entry = iterator.next();
+      track(entry.getKey(), expiryPolicy().getExpiryForCreation(entry.getKey(), entry.getValue()));
+    }
+  }
+
+  /**
+   * Deregisters this refresher and stops its executor, letting the reloads in progress complete.
+   */
+  void deregister() {
+    cache.getRuntimeConfiguration().deregisterCacheEventListener(this);
+    executor.shutdown();
+  }
+
+  void reset() {
+    deadlines.clear();
+  }
+
+  /**
+   * Records a read of the given key, reloading it in the background if it is about to expire.
+   *
+   * @param key the key read
+   * @param value the value read
+   */
+  void accessed(final K key, final V value) {
+    Long deadline = deadlines.get(key);
+    if (deadline == null) {
+      return;
+    }
+
+    Duration accessExpiry = expiryPolicy().getExpiryForAccess(key, () -> value);
+    if (accessExpiry != null) {
+      Long accessDeadline = deadlineOf(accessExpiry);
+      if (accessDeadline == null) {
+        deadlines.remove(key, deadline);
+        return;
+      }
+      // the read restarted the expiry of the entry, unless it was removed or updated meanwhile
+      deadline = deadlines.replace(key, deadline, accessDeadline) ? accessDeadline : deadlines.get(key);
+      if (deadline == null) {
+        return;
+      }
+    }
+
+    if (System.nanoTime() - (deadline - windowNanos) < 0 || !refreshing.add(key)) {
+      return;
+    }
+
+    try {
+      executor.execute(new Runnable() {
+        public void run() {
+          try {
+            refresh(key);
+          } finally {
+            refreshing.remove(key);
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      refreshing.remove(key);
+      log.debug("Refresh of [{}] dropped, the refresh executor is saturated", key);
+    }
+  }
+
+  int size() {
+    return deadlines.size();
+  }
+
+  public void onEvent(CacheEvent<? extends K, ? extends V> event) {
+    switch (event.getType()) {
+      case CREATED:
+        track(event.getKey(), expiryPolicy().getExpiryForCreation(event.getKey(), event.getNewValue()));
+        break;
+      case UPDATED:
+        final V oldValue = event.getOldValue();
+        Duration expiry = expiryPolicy().getExpiryForUpdate(event.getKey(), () -> oldValue, event.getNewValue());
+        if (expiry != null) {
+          track(event.getKey(), expiry);
+        }
+        break;
+      case REMOVED:
+      case EXPIRED:
+      case EVICTED:
+        deadlines.remove(event.getKey());
+        break;
+      default:
+        break;
+    }
+  }
+
+  private void refresh(K key) {
+    try {
+      V value = loader.apply(key);
+      if (value != null) {
+        writer.accept(key, value);
+      }
+    } catch (RuntimeException e) {
+      log.warn("Refresh of [" + key + "] failed, the cached value is left to expire", e);
+    }
+  }
+
+  private void track(K key, Duration expiry) {
+    Long deadline = expiry == null ? null : deadlineOf(expiry);
+    if (deadline == null) {
+      deadlines.remove(key);
+    } else {
+      deadlines.put(key, deadline);
+    }
+  }
+
+  /**
+   * Returns the {@link System#nanoTime()} at which an entry expiring after the given duration expires, or
+   * {@code null} if it never does.
+   */
+  private static Long deadlineOf(Duration expiry) {
+    if (expiry.compareTo(ExpiryPolicy.INFINITE) >= 0) {
+      return null;
+    }
+    try {
+      return System.nanoTime() + expiry.toNanos();
+    } catch (ArithmeticException e) {
+      return null;
+    }
+  }
+
+  private ExpiryPolicy<? super K, ? super V> expiryPolicy() {
+    return cache.getRuntimeConfiguration().getExpiryPolicy();
+  }
+}
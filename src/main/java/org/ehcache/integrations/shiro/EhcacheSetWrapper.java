@@ -21,10 +21,11 @@ import org.apache.shiro.cache.Cache;
 import java.util.AbstractSet;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.Spliterator;
 
 abstract class EhcacheSetWrapper<E> extends AbstractSet<E> {
 
-  private final Collection<E> delegate;
+  private final EhcacheCollectionWrapper<E> delegate;
 
   EhcacheSetWrapper(Cache shiroCache, org.ehcache.Cache ehcacheCache) {
     delegate = new EhcacheCollectionWrapper<E>(shiroCache, ehcacheCache) {
@@ -44,6 +45,33 @@ abstract class EhcacheSetWrapper<E> extends AbstractSet<E> {
     return delegate.isEmpty();
   }
 
+  /**
+   * Returns a {@link Spliterator} that can be split for parallel streams, see
+   * {@link EhcacheCollectionWrapper#spliterator()}.
+   */
+  @Override
+  public Spliterator<E> spliterator() {
+    return new EhcacheSpliterator<E>(iterator(), delegate.estimatedSize(), Spliterator.DISTINCT);
+  }
+
+  /**
+   * Returns a snapshot of this set, read in a single pass over the cache, see
+   * {@link EhcacheCollectionWrapper#toArray()}.
+   */
+  @Override
+  public Object[] toArray() {
+    return EhcacheCollectionWrapper.snapshot(iterator(), delegate.estimatedSize()).toArray();
+  }
+
+  /**
+   * Returns a snapshot of this set, read in a single pass over the cache, see
+   * {@link EhcacheCollectionWrapper#toArray()}.
+   */
+  @Override
+  public <T> T[] toArray(T[] a) {
+    return EhcacheCollectionWrapper.snapshot(iterator(), delegate.estimatedSize()).toArray(a);
+  }
+
   @Override
   public boolean addAll(Collection<? extends E> c) {
     return delegate.addAll(c);
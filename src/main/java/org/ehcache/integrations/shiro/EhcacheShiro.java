@@ -18,25 +18,138 @@ package org.ehcache.integrations.shiro;
 
 import org.apache.shiro.cache.Cache;
 import org.apache.shiro.cache.CacheException;
+import org.apache.shiro.session.mgt.SimpleSession;
+import org.ehcache.core.InternalCache;
+import org.ehcache.core.Jsr107Cache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.Function;
 
-public class EhcacheShiro<K, V> implements Cache<K, V> {
+public class EhcacheShiro<K, V> implements BulkCache<K, V> {
+
+  /**
+   * Strategies available to compute {@link EhcacheShiro#size()}.
+   */
+  public enum SizeMode {
+    /**
+     * Iterates over the whole cache on each call: exact, but linear in the number of mappings and deserializes every
+     * entry stored outside of the heap.
+     */
+    EXACT,
+    /**
+     * Reads a counter maintained from the cache events: constant time, but approximate. Mutations racing with the
+     * periodic reconciliation of the counter, and clears made directly on the wrapped cache, skew it until the next
+     * reconciliation.
+     */
+    COUNTED
+  }
+
+  /**
+   * Strategies available to {@link EhcacheShiro#put(Object, Object)} a value.
+   */
+  public enum PutMode {
+    /**
+     * Reads the current value before conditionally writing the new one, so that the previous value can be returned:
+     * at least two tier accesses per call.
+     */
+    RETURN_PREVIOUS,
+    /**
+     * Overwrites the current value with a single {@code put} and always returns {@code null}.
+     */
+    BLIND
+  }
+
+  /**
+   * Strategies available to {@link EhcacheShiro#remove(Object)} a value.
+   */
+  public enum RemoveMode {
+    /**
+     * Removes the mapping and returns the removed value.
+     */
+    RETURN_PREVIOUS,
+    /**
+     * Removes the mapping without reading it and always returns {@code null}.
+     */
+    BLIND
+  }
+
+  /**
+   * Strategies available to {@link EhcacheShiro#get(Object)} a value.
+   */
+  public enum GetMode {
+    /**
+     * Reads the cache and returns {@code null} on a miss, so that every caller missing a key loads it.
+     */
+    DIRECT,
+    /**
+     * On a miss, only the first caller gets {@code null} and is expected to load and put the value: concurrent callers
+     * missing the same key wait for that put and return the loaded value.
+     */
+    SINGLE_FLIGHT
+  }
 
   private static final Logger log = LoggerFactory.getLogger(EhcacheShiro.class);
 
   private final org.ehcache.Cache<K, V> cache;
 
+  private final Jsr107Cache<K, V> atomicCache;
+
+  private volatile SizeMode sizeMode = SizeMode.EXACT;
+  private volatile Duration sizeReconcileInterval = Duration.ofMillis(EhcacheEntryCounter.DEFAULT_RECONCILE_INTERVAL_MILLIS);
+
+  private volatile PutMode putMode = PutMode.RETURN_PREVIOUS;
+
+  private volatile RemoveMode removeMode = RemoveMode.RETURN_PREVIOUS;
+
+  private volatile EhcacheLoadCoalescer<K> loadCoalescer;
+
+  private volatile EhcacheEntryCounter<K, V> entryCounter;
+
+  private volatile SessionExpiryIndex<K, V> expiryIndex;
+
+  private volatile EhcacheRefresher<K, V> refresher;
+
+  private volatile SessionTouchCoalescer<K, V> touchCoalescer;
+
+  private volatile boolean deltaStorage;
+
   public EhcacheShiro(org.ehcache.Cache cache) {
     if (cache == null) {
       throw new IllegalArgumentException("Cache argument cannot be null.");
     }
 
     this.cache = cache;
+    this.atomicCache = atomicView(this.cache);
+  }
+
+  /**
+   * Returns a view of the given cache offering a single operation get-and-remove, or {@code null} when the cache does
+   * not provide one.
+   * <P>
+   * The public {@link org.ehcache.Cache} API has no such operation, so this relies on the view Ehcache core builds for
+   * its JSR-107 provider. It is the only use of Ehcache internals in this class; caches that are not core caches, or a
+   * core that no longer offers the view, fall back to a read then conditional remove loop.
+   * </P>
+   */
+  @SuppressWarnings("unchecked") // the view shares the key and value types of the cache it is created from
+  private static <K, V> Jsr107Cache<K, V> atomicView(org.ehcache.Cache<K, V> cache) {
+    if (!(cache instanceof InternalCache)) {
+      return null;
+    }
+    try {
+      return ((InternalCache<K, V>) cache).createJsr107Cache();
+    } catch (LinkageError e) {
+      log.debug("Atomic removal unavailable, falling back to conditional removal", e);
+      return null;
+    }
   }
 
   public V get(K k) throws CacheException {
@@ -46,60 +159,222 @@ public class EhcacheShiro<K, V> implements Cache<K, V> {
       return null;
     }
 
-    V value = cache.get(k);
+    SessionTouchCoalescer<K, V> touches = touchCoalescer;
+    if (touches != null) {
+      V pending = touches.pending(k);
+      if (pending != null) {
+        return pending;
+      }
+    }
+
+    V value = fromCache(cache.get(k));
+    EhcacheLoadCoalescer<K> coalescer = loadCoalescer;
+    if (value == null && coalescer != null) {
+      while (value == null && !coalescer.claimOrAwait(k)) {
+        value = fromCache(cache.get(k));
+      }
+    }
     if (value == null) {
       log.trace("Element for [{}] is null.", k);
+    } else {
+      EhcacheRefresher<K, V> currentRefresher = refresher;
+      if (currentRefresher != null) {
+        currentRefresher.accessed(k, value);
+      }
     }
 
     return value;
   }
 
+  /**
+   * {@inheritDoc}
+   * <P>
+   * When {@link #setTouchCoalescing(Duration) touch coalescing} is enabled, a session that only changed its last
+   * access time is kept in memory instead of being written, and {@code null} is returned.
+   * </P>
+   */
   public V put(K k, V v) throws CacheException {
     trace("Putting object", k);
 
-    V previousValue = null;
+    SessionTouchCoalescer<K, V> touches = touchCoalescer;
+    if (touches == null) {
+      return putInCache(k, v);
+    }
+    return touches.put(k, v, () -> putInCache(k, v));
+  }
 
-    while (true) {
-      previousValue = cache.get(k);
-      if (previousValue == null) {
-        if (cache.putIfAbsent(k, v) == null) {
-          break;
-        }
-      } else {
-        if (cache.replace(k, v) != null) {
-          break;
+  private V putInCache(K k, V v) {
+    try {
+      if (putMode == PutMode.BLIND) {
+        cache.put(k, toCache(v));
+        return null;
+      }
+
+      V previousValue = null;
+      V stored = toCache(v);
+
+      while (true) {
+        previousValue = cache.get(k);
+        if (previousValue == null) {
+          if (cache.putIfAbsent(k, stored) == null) {
+            break;
+          }
+        } else {
+          if (cache.replace(k, stored) != null) {
+            break;
+          }
         }
       }
-    }
 
-    return previousValue;
+      return fromCache(previousValue);
+    } finally {
+      completeLoad(k);
+    }
   }
 
+  /**
+   * {@inheritDoc}
+   * <P>
+   * In {@link RemoveMode#RETURN_PREVIOUS} mode the mapping is read and removed in a single atomic operation whenever
+   * the wrapped cache supports it.
+   * </P>
+   */
   public V remove(K k) throws CacheException {
     trace("Removing object", k);
 
-    V previousValue = null;
+    SessionTouchCoalescer<K, V> touches = touchCoalescer;
+    if (touches == null) {
+      return removeFromCache(k);
+    }
+    synchronized (touches.lockFor(k)) {
+      V pending = touches.pending(k);
+      touches.removed(k);
+      V previousValue = removeFromCache(k);
+      return pending == null || previousValue == null ? previousValue : pending;
+    }
+  }
+
+  private V removeFromCache(K k) {
+    try {
+      if (removeMode == RemoveMode.BLIND) {
+        cache.remove(k);
+        return null;
+      }
+
+      if (atomicCache != null) {
+        return fromCache(atomicCache.getAndRemove(k));
+      }
 
-    while (true) {
-      previousValue = cache.get(k);
-      if (previousValue == null) {
-        break;
-      } else {
-        if (cache.remove(k, previousValue)) {
+      V previousValue = null;
+
+      while (true) {
+        previousValue = cache.get(k);
+        if (previousValue == null) {
           break;
+        } else {
+          if (cache.remove(k, previousValue)) {
+            break;
+          }
         }
       }
+
+      return fromCache(previousValue);
+    } finally {
+      completeLoad(k);
+    }
+  }
+
+  /**
+   * Removes the mapping for the given key, if any, without reading its value.
+   * <P>
+   * This is a single tier operation whatever the {@link RemoveMode}, meant for callers that do not need the removed
+   * value, like logout or session expiry.
+   * </P>
+   *
+   * @param k the key to remove
+   */
+  public void discard(K k) throws CacheException {
+    trace("Discarding object", k);
+    SessionTouchCoalescer<K, V> touches = touchCoalescer;
+    if (touches == null) {
+      discardFromCache(k);
+      return;
+    }
+    synchronized (touches.lockFor(k)) {
+      touches.removed(k);
+      discardFromCache(k);
+    }
+  }
+
+  private void discardFromCache(K k) {
+    try {
+      cache.remove(k);
+    } finally {
+      completeLoad(k);
+    }
+  }
+
+  public Map<K, V> getAll(Set<? extends K> keys) throws CacheException {
+    log.trace("Getting {} objects using cache [{}]", keys.size(), cache);
+    return fromCache(cache.getAll(keys));
+  }
+
+  public void putAll(Map<? extends K, ? extends V> entries) throws CacheException {
+    log.trace("Putting {} objects using cache [{}]", entries.size(), cache);
+    forgetTouches(entries.keySet());
+    try {
+      cache.putAll(entries);
+    } finally {
+      for (K k : entries.keySet()) {
+        completeLoad(k);
+      }
     }
+  }
 
-    return previousValue;
+  public void removeAll(Set<? extends K> keys) throws CacheException {
+    log.trace("Removing {} objects using cache [{}]", keys.size(), cache);
+    forgetTouches(keys);
+    try {
+      cache.removeAll(keys);
+    } finally {
+      for (K k : keys) {
+        completeLoad(k);
+      }
+    }
   }
 
   public void clear() throws CacheException {
     log.trace("Clearing all objects from cache [" + cache + "]");
     cache.clear();
+
+    EhcacheEntryCounter<K, V> counter = entryCounter;
+    if (counter != null) {
+      counter.reset();
+    }
+    SessionExpiryIndex<K, V> index = expiryIndex;
+    if (index != null) {
+      index.reset();
+    }
+    EhcacheRefresher<K, V> currentRefresher = refresher;
+    if (currentRefresher != null) {
+      currentRefresher.reset();
+    }
+    SessionTouchCoalescer<K, V> touches = touchCoalescer;
+    if (touches != null) {
+      touches.reset();
+    }
+    EhcacheLoadCoalescer<K> coalescer = loadCoalescer;
+    if (coalescer != null) {
+      coalescer.completeAll();
+    }
   }
 
   public int size() {
+    EhcacheEntryCounter<K, V> counter = entryCounter;
+    if (counter != null) {
+      return counter.get();
+    }
+
     Iterator<org.ehcache.Cache.Entry<K, V>> iterator = cache.iterator();
     int size = 0;
     while (iterator.hasNext()) {
@@ -110,6 +385,14 @@ public class EhcacheShiro<K, V> implements Cache<K, V> {
     return size;
   }
 
+  /**
+   * Returns the number of entries when it is known without iterating the cache, {@code Long.MAX_VALUE} otherwise.
+   */
+  long estimatedSize() {
+    EhcacheEntryCounter<K, V> counter = entryCounter;
+    return counter == null ? Long.MAX_VALUE : counter.get();
+  }
+
   public Set<K> keys() {
     return new EhcacheSetWrapper<K>(this, cache) {
       @Override
@@ -130,13 +413,448 @@ public class EhcacheShiro<K, V> implements Cache<K, V> {
       public Iterator<V> iterator() {
         return new EhcacheIterator<K, V, V>(cache.iterator()) {
           protected V getNext(Iterator<org.ehcache.Cache.Entry<K, V>> cacheIterator) {
-            return cacheIterator.next().getValue();
+            org.ehcache.Cache.Entry<K, V> entry = cacheIterator.next();
+            SessionTouchCoalescer<K, V> touches = touchCoalescer;
+            V pending = touches == null ? null : touches.pending(entry.getKey());
+            return pending == null ? fromCache(entry.getValue()) : pending;
           }
         };
       }
     };
   }
 
+  /**
+   * Opens a cursor reading the entries of this cache a page at a time.
+   * <P>
+   * Unlike {@link #keys()} and {@link #values()}, which are meant to be traversed in full, each page of the cursor only
+   * reads the entries it returns. See {@link EhcacheCursor} for the consistency guarantees of the traversal.
+   * </P>
+   *
+   * @return a cursor positioned before the first entry
+   */
+  public EhcacheCursor<K, V> cursor() {
+    return new EhcacheCursor<K, V>(cache.iterator(), this::fromCache);
+  }
+
+  /**
+   * Returns the cached sessions that may have timed out at the given time.
+   * <P>
+   * When the {@link #setExpiryIndexed(boolean) expiry index} is enabled, only the sessions whose timeout falls before,
+   * or shortly after, the given time are read from the cache, so the cost of a session validation sweep scales with
+   * the number of expiring sessions rather than with the size of the cache. The caller is still expected to validate
+   * each returned session. Without the index, all the values of the cache are returned.
+   * </P>
+   *
+   * @param time the time, in milliseconds since the epoch
+   * @return the candidate sessions
+   */
+  public Collection<V> getExpirationCandidates(long time) throws CacheException {
+    SessionExpiryIndex<K, V> index = expiryIndex;
+    if (index == null) {
+      return new ArrayList<V>(values());
+    }
+
+    Set<K> keys = index.keysExpiringBefore(time);
+    Collection<V> candidates = new ArrayList<V>(keys.size());
+    for (V value : fromCache(cache.getAll(keys)).values()) {
+      if (value != null) {
+        candidates.add(value);
+      }
+    }
+    return candidates;
+  }
+
+  /**
+   * Returns whether an index of the cached sessions ordered by timeout is maintained.
+   *
+   * @return {@code true} if the expiry index is enabled
+   */
+  public boolean isExpiryIndexed() {
+    return expiryIndex != null;
+  }
+
+  /**
+   * Enables or disables the index of the cached sessions ordered by timeout used by
+   * {@link #getExpirationCandidates(long)}.
+   * <P>
+   * Enabling the index registers an event listener on the wrapped cache and seeds the index with a single iteration,
+   * disabling it removes that listener.
+   * </P>
+   *
+   * @param expiryIndexed whether the expiry index should be maintained
+   */
+  public synchronized void setExpiryIndexed(boolean expiryIndexed) {
+    if (expiryIndexed == isExpiryIndexed()) {
+      return;
+    }
+
+    if (expiryIndexed) {
+      SessionExpiryIndex<K, V> index = new SessionExpiryIndex<K, V>(cache, SessionExpiryIndex.DEFAULT_BUCKET_MILLIS);
+      index.register();
+      expiryIndex = index;
+    } else {
+      SessionExpiryIndex<K, V> index = expiryIndex;
+      expiryIndex = null;
+      index.deregister();
+    }
+  }
+
+  /**
+   * Returns the strategy used to compute {@link #size()}.
+   *
+   * @return the current size mode
+   */
+  public SizeMode getSizeMode() {
+    return sizeMode;
+  }
+
+  /**
+   * Sets the strategy used to compute {@link #size()}.
+   * <P>
+   * Switching to {@link SizeMode#COUNTED} registers an event listener on the wrapped cache and seeds its counter with
+   * a single iteration, then reconciles the counter with a new iteration every
+   * {@link #setSizeReconcileInterval(Duration) reconcile interval} on a daemon thread. Switching back to
+   * {@link SizeMode#EXACT} removes that listener and stops the thread.
+   * </P>
+   *
+   * @param sizeMode the size mode to use
+   */
+  public synchronized void setSizeMode(SizeMode sizeMode) {
+    if (sizeMode == null) {
+      throw new IllegalArgumentException("SizeMode argument cannot be null.");
+    }
+    if (sizeMode == this.sizeMode) {
+      return;
+    }
+
+    if (sizeMode == SizeMode.COUNTED) {
+      EhcacheEntryCounter<K, V> counter = new EhcacheEntryCounter<K, V>(cache, sizeReconcileInterval.toMillis());
+      counter.register();
+      entryCounter = counter;
+    } else {
+      EhcacheEntryCounter<K, V> counter = entryCounter;
+      entryCounter = null;
+      counter.deregister();
+    }
+    this.sizeMode = sizeMode;
+  }
+
+  /**
+   * Returns the interval at which the counter of {@link SizeMode#COUNTED} is reconciled with the cache.
+   *
+   * @return the reconcile interval
+   */
+  public Duration getSizeReconcileInterval() {
+    return sizeReconcileInterval;
+  }
+
+  /**
+   * Sets the interval at which the counter of {@link SizeMode#COUNTED} is reconciled with the cache, five minutes by
+   * default. A counter already running is restarted with the new interval.
+   *
+   * @param sizeReconcileInterval the reconcile interval
+   */
+  public synchronized void setSizeReconcileInterval(Duration sizeReconcileInterval) {
+    if (sizeReconcileInterval == null || sizeReconcileInterval.isNegative() || sizeReconcileInterval.isZero()) {
+      throw new IllegalArgumentException("Size reconcile interval must be a positive duration.");
+    }
+    this.sizeReconcileInterval = sizeReconcileInterval;
+    if (sizeMode == SizeMode.COUNTED) {
+      setSizeMode(SizeMode.EXACT);
+      setSizeMode(SizeMode.COUNTED);
+    }
+  }
+
+  /**
+   * Returns the strategy used by {@link #put(Object, Object)}.
+   *
+   * @return the current put mode
+   */
+  public PutMode getPutMode() {
+    return putMode;
+  }
+
+  /**
+   * Sets the strategy used by {@link #put(Object, Object)}.
+   * <P>
+   * {@link PutMode#BLIND} suits callers that discard the returned previous value, like Shiro's session DAOs.
+   * </P>
+   *
+   * @param putMode the put mode to use
+   */
+  public void setPutMode(PutMode putMode) {
+    if (putMode == null) {
+      throw new IllegalArgumentException("PutMode argument cannot be null.");
+    }
+    this.putMode = putMode;
+  }
+
+  /**
+   * Returns the strategy used by {@link #remove(Object)}.
+   *
+   * @return the current remove mode
+   */
+  public RemoveMode getRemoveMode() {
+    return removeMode;
+  }
+
+  /**
+   * Sets the strategy used by {@link #remove(Object)}.
+   * <P>
+   * {@link RemoveMode#BLIND} suits callers that discard the returned value, like Shiro's session DAOs.
+   * </P>
+   *
+   * @param removeMode the remove mode to use
+   */
+  public void setRemoveMode(RemoveMode removeMode) {
+    if (removeMode == null) {
+      throw new IllegalArgumentException("RemoveMode argument cannot be null.");
+    }
+    this.removeMode = removeMode;
+  }
+
+  /**
+   * Returns the strategy used by {@link #get(Object)} on a cache miss.
+   *
+   * @return the current get mode
+   */
+  public GetMode getGetMode() {
+    return loadCoalescer == null ? GetMode.DIRECT : GetMode.SINGLE_FLIGHT;
+  }
+
+  /**
+   * Sets the strategy used by {@link #get(Object)} on a cache miss.
+   * <P>
+   * {@link GetMode#SINGLE_FLIGHT} suits the authentication and authorization caches of Shiro realms, which load the
+   * missing value from the realm and put it in the cache: when a popular entry goes missing, a single realm lookup is
+   * made instead of one per concurrent request. A caller that misses a key and does not put it, for instance because
+   * the realm lookup failed, delays the other callers missing that key by up to one second.
+   * </P>
+   *
+   * @param getMode the get mode to use
+   */
+  public synchronized void setGetMode(GetMode getMode) {
+    if (getMode == null) {
+      throw new IllegalArgumentException("GetMode argument cannot be null.");
+    }
+    if (getMode == getGetMode()) {
+      return;
+    }
+
+    if (getMode == GetMode.SINGLE_FLIGHT) {
+      loadCoalescer = new EhcacheLoadCoalescer<K>(EhcacheLoadCoalescer.DEFAULT_LOAD_TIMEOUT_MILLIS);
+    } else {
+      EhcacheLoadCoalescer<K> coalescer = loadCoalescer;
+      loadCoalescer = null;
+      coalescer.completeAll();
+    }
+  }
+
+  /**
+   * Returns whether entries read shortly before they expire are reloaded in the background.
+   *
+   * @return {@code true} if refresh-ahead is enabled
+   */
+  public boolean isRefreshAhead() {
+    return refresher != null;
+  }
+
+  /**
+   * Enables or disables the background reload of the entries read shortly before they expire.
+   * <P>
+   * The expiration time of each entry is derived from the expiry policy of the wrapped cache when the entry is
+   * written, and when it is read if the policy sets an expiry on access. A {@link #get(Object)} leaving the entry
+   * within {@code window} of that time returns the current value and submits the key to {@code loader} on a small
+   * bounded pool of daemon threads; a non {@code null} result replaces the cached value and restarts its expiry, so
+   * frequently read entries never expire. Reloads that do not fit in the pool are dropped. Refresh-ahead is meant for
+   * caches with a time-to-live: under a time-to-idle longer than {@code window}, each read already restarts the
+   * expiry and no reload is ever submitted. For the authorization cache of an {@code AuthorizingRealm}, the loader
+   * would typically call {@code doGetAuthorizationInfo} with the {@code PrincipalCollection} key. The loader is code,
+   * so refresh-ahead can only be enabled programmatically, not from the manager properties.
+   * </P>
+   *
+   * @param loader the function reloading a key, or {@code null} to disable refresh-ahead
+   * @param window how long before their expiration entries get reloaded when read, ignored when disabling
+   */
+  public synchronized void setRefreshAhead(Function<? super K, ? extends V> loader, Duration window) {
+    EhcacheRefresher<K, V> previous = refresher;
+    if (loader != null) {
+      EhcacheRefresher<K, V> enabled = new EhcacheRefresher<K, V>(cache, loader, this::replaceReloaded, window,
+              EhcacheRefresher.newExecutor());
+      enabled.register();
+      refresher = enabled;
+    } else {
+      refresher = null;
+    }
+    if (previous != null) {
+      previous.deregister();
+    }
+  }
+
+  /**
+   * Replaces the cached value of the given key with its reloaded value, when the key is still present.
+   */
+  private void replaceReloaded(K k, V v) {
+    try {
+      cache.replace(k, toCache(v));
+    } finally {
+      completeLoad(k);
+    }
+  }
+
+  /**
+   * Returns whether the writes of sessions that only changed their last access time are coalesced in memory.
+   *
+   * @return {@code true} if touch coalescing is enabled
+   */
+  public boolean isTouchCoalescing() {
+    return touchCoalescer != null;
+  }
+
+  /**
+   * Enables or disables the coalescing of the writes of sessions that only changed their last access time.
+   * <P>
+   * Shiro writes the session to the cache on nearly every request just to update its last access time. With touch
+   * coalescing, a {@code SimpleSession} written with no other change than its last access time is kept in memory and
+   * returned by {@link #get(Object)}, {@link #getAll(Set)} and {@link #values()} in place of the cached copy, and is
+   * only written to the cache every {@code flushInterval}. Any other change, including an attribute changed in place,
+   * is written immediately. A pending session is dropped, rather than written back, once its cached copy is removed,
+   * expires or is evicted. Other views of the cache, like {@link #cursor()}, may see a last access time up to
+   * {@code flushInterval} old. Disabling it flushes the pending sessions.
+   * </P>
+   *
+   * @param flushInterval the interval at which touched sessions are written to the cache, or {@code null} to disable
+   *                      touch coalescing
+   */
+  public synchronized void setTouchCoalescing(Duration flushInterval) {
+    SessionTouchCoalescer<K, V> previous = touchCoalescer;
+    if (flushInterval != null) {
+      SessionTouchCoalescer<K, V> enabled = new SessionTouchCoalescer<K, V>(cache,
+              (k, v) -> cache.replace(k, toCache(v)) != null, flushInterval.toMillis());
+      enabled.register();
+      touchCoalescer = enabled;
+    } else {
+      touchCoalescer = null;
+    }
+    if (previous != null) {
+      previous.deregister();
+    }
+  }
+
+  /**
+   * Returns whether sessions are stored with their attributes serialized one by one.
+   *
+   * @return {@code true} if delta storage is enabled
+   */
+  public boolean isDeltaStorage() {
+    return deltaStorage;
+  }
+
+  /**
+   * Enables or disables the storage of sessions with their attributes serialized one by one.
+   * <P>
+   * With delta storage, {@link #put(Object, Object)} stores a {@code SimpleSession} as an image whose attributes are
+   * serialized individually, and reads return sessions whose attributes are only deserialized when first read. When
+   * such a session is written back, the attributes that were not read, and the ones holding an equal value of an
+   * immutable type like {@code String}, the boxed primitives or enums, are not serialized again. Other attributes that
+   * were read are serialized on every write, as they may have been changed in place. The tiers still store the whole
+   * image: delta storage suits sessions stored off-heap or on disk, with many attributes of which each request only
+   * reads a few. The value type of the cache must accept the images, as {@code java.lang.Object} does. Sessions
+   * stored while it was disabled are read as before.
+   * </P>
+   *
+   * @param deltaStorage whether sessions should be stored as images
+   */
+  public void setDeltaStorage(boolean deltaStorage) {
+    this.deltaStorage = deltaStorage;
+  }
+
+  /**
+   * Returns the wrapped {@link org.ehcache.Cache}.
+   */
+  org.ehcache.Cache<K, V> getWrappedCache() {
+    return cache;
+  }
+
+  /**
+   * Stops the background work of this wrapper: the size counter, the expiry index and the refresher stop, the callers
+   * waiting for a single-flight load are released, and the pending touched sessions are flushed.
+   */
+  void close() {
+    setSizeMode(SizeMode.EXACT);
+    setExpiryIndexed(false);
+    setGetMode(GetMode.DIRECT);
+    setRefreshAhead(null, null);
+    setTouchCoalescing(null);
+  }
+
+  /**
+   * Writes the sessions whose last access time changes are pending to the cache, when touch coalescing is enabled.
+   */
+  public void flushTouches() {
+    SessionTouchCoalescer<K, V> touches = touchCoalescer;
+    if (touches != null) {
+      touches.flush();
+    }
+  }
+
+  /**
+   * Returns the given value, or the session it stores when it is a {@link SessionImage}.
+   */
+  @SuppressWarnings("unchecked")
+  private V fromCache(V value) {
+    return value instanceof SessionImage ? (V) ((SessionImage) value).toSession() : value;
+  }
+
+  /**
+   * Returns the value the cache should store for the given value: its {@link SessionImage} when delta storage
+   * applies, the value itself otherwise.
+   */
+  @SuppressWarnings("unchecked")
+  private V toCache(V value) {
+    return isImaged(value) ? (V) SessionImage.of((SimpleSession) value) : value;
+  }
+
+  private boolean isImaged(V value) {
+    return deltaStorage && value != null && value.getClass() == SimpleSession.class;
+  }
+
+  /**
+   * Returns the given values as returned by {@link #get(Object)}: stored sessions are rebuilt, and pending touched
+   * sessions replace the cached ones.
+   */
+  private Map<K, V> fromCache(Map<K, V> values) {
+    SessionTouchCoalescer<K, V> touches = touchCoalescer;
+    boolean overlay = touches != null && touches.pendingCount() > 0;
+    if (!overlay && !deltaStorage) {
+      return values;
+    }
+    Map<K, V> converted = new HashMap<K, V>(values);
+    for (Map.Entry<K, V> entry : converted.entrySet()) {
+      V pending = overlay ? touches.pending(entry.getKey()) : null;
+      entry.setValue(pending == null ? fromCache(entry.getValue()) : pending);
+    }
+    return converted;
+  }
+
+  private void forgetTouches(Set<? extends K> keys) {
+    SessionTouchCoalescer<K, V> touches = touchCoalescer;
+    if (touches != null) {
+      for (K k : keys) {
+        synchronized (touches.lockFor(k)) {
+          touches.removed(k);
+        }
+      }
+    }
+  }
+
+  private void completeLoad(K k) {
+    EhcacheLoadCoalescer<K> coalescer = loadCoalescer;
+    if (coalescer != null) {
+      coalescer.complete(k);
+    }
+  }
+
   private void trace(String operation, K k) {
     log.trace("{} using cache [{}] for key [{}]", operation, cache, k);
   }
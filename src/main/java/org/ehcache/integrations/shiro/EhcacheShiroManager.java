@@ -24,14 +24,45 @@ import org.apache.shiro.io.ResourceUtils;
 import org.apache.shiro.util.Destroyable;
 import org.apache.shiro.util.Initializable;
 import org.ehcache.config.CacheConfiguration;
+import org.ehcache.config.Configuration;
+import org.ehcache.config.EvictionAdvisor;
 import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.CacheEventListenerConfigurationBuilder;
 import org.ehcache.config.builders.CacheManagerBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.ehcache.config.builders.WriteBehindConfigurationBuilder;
+import org.ehcache.config.units.EntryUnit;
+import org.ehcache.config.units.MemoryUnit;
+import org.ehcache.core.config.DefaultConfiguration;
+import org.ehcache.expiry.ExpiryPolicy;
+import org.ehcache.impl.config.loaderwriter.DefaultCacheLoaderWriterConfiguration;
+import org.ehcache.spi.service.ServiceCreationConfiguration;
 import org.ehcache.xml.XmlConfiguration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
 
 /**
  * Shiro {@link CacheManager} implementation using the Ehcache 3.x framework for all cache functionality
@@ -40,6 +71,15 @@ public class EhcacheShiroManager implements CacheManager, Initializable, Destroy
 
   private static final Logger log = LoggerFactory.getLogger(EhcacheShiroManager.class);
 
+  static final int WRITE_BEHIND_BATCH_SIZE = 100;
+  static final int WRITE_BEHIND_QUEUE_SIZE = 100000;
+
+  static final String DEFAULT_CACHE_TEMPLATE = "defaultCacheConfiguration";
+
+  private static final AtomicInteger INIT_THREAD_COUNT = new AtomicInteger();
+
+  private final Object managerLock = new Object();
+
   private volatile org.ehcache.CacheManager manager;
 
   private volatile String cacheManagerConfigFile = "classpath:org/ehcache/integrations/shiro/ehcache.xml";
@@ -47,6 +87,34 @@ public class EhcacheShiroManager implements CacheManager, Initializable, Destroy
 
   private volatile XmlConfiguration cacheConfiguration = null;
 
+  private volatile Map<String, String> cacheTemplates = Collections.emptyMap();
+  private volatile Map<Pattern, String> cacheTemplatePatterns = Collections.emptyMap();
+  private final ConcurrentMap<String, TemplateConfiguration> templateConfigurations = new ConcurrentHashMap<String, TemplateConfiguration>();
+
+  private volatile Set<String> countedSizeCaches = Collections.emptySet();
+  private volatile long sizeReconcileIntervalMillis = EhcacheEntryCounter.DEFAULT_RECONCILE_INTERVAL_MILLIS;
+  private volatile Set<String> blindPutCaches = Collections.emptySet();
+  private volatile Set<String> blindRemoveCaches = Collections.emptySet();
+  private volatile Set<String> expiryIndexedCaches = Collections.emptySet();
+  private volatile Set<String> singleFlightCaches = Collections.emptySet();
+  private volatile Set<String> touchCoalescingCaches = Collections.emptySet();
+  private volatile long touchFlushIntervalMillis = 10000L;
+  private volatile Set<String> deltaStorageCaches = Collections.emptySet();
+
+  private volatile Set<String> offHeapSessionCaches = Collections.emptySet();
+  private volatile long offHeapSessionHeapEntries = 1000L;
+  private volatile long offHeapSessionSizeMB = 256L;
+
+  private volatile SessionSink sessionSink;
+  private volatile Set<String> writeBehindCaches = Collections.emptySet();
+  private volatile long writeBehindMaxDelayMillis = 1000L;
+
+  private volatile boolean eagerInit = false;
+  private volatile Set<String> eagerCaches = Collections.emptySet();
+  private volatile int eagerInitThreads = 4;
+
+  private final ConcurrentMap<String, FutureTask<EhcacheShiro<Object, Object>>> caches = new ConcurrentHashMap<String, FutureTask<EhcacheShiro<Object, Object>>>();
+
   /**
    * Returns the wrapped {@link org.ehcache.CacheManager} instance
    *
@@ -58,17 +126,24 @@ public class EhcacheShiroManager implements CacheManager, Initializable, Destroy
 
   /**
    * Sets the wrapped {@link org.ehcache.CacheManager} instance
+   * <P>
+   * The previous manager is torn down and replaced in a single critical section, so that no manager can be implicitly
+   * created in between and leak.
+   * </P>
    *
    * @param cacheManager the {@link org.ehcache.CacheManager} to be used
    */
   public void setCacheManager(org.ehcache.CacheManager cacheManager) {
-    try {
-      destroy();
-    } catch (Exception e) {
-      log.warn("The Shiro managed CacheManager threw an Exception while closing", e);
+    synchronized (managerLock) {
+      try {
+        destroy();
+      } catch (Exception e) {
+        log.warn("The Shiro managed CacheManager threw an Exception while closing", e);
+      }
+      caches.clear();
+      cacheManagerImplicitlyCreated = false;
+      manager = cacheManager;
     }
-    manager = cacheManager;
-    cacheManagerImplicitlyCreated = false;
   }
 
   /**
@@ -103,12 +178,593 @@ public class EhcacheShiroManager implements CacheManager, Initializable, Destroy
     this.cacheManagerConfigFile = cacheManagerConfigFile;
   }
 
+  /**
+   * Returns the rules mapping cache names to the XML cache templates the caches are created from.
+   *
+   * @return the cache templates, by cache name or name pattern
+   */
+  public Map<String, String> getCacheTemplates() {
+    return cacheTemplates;
+  }
+
+  /**
+   * Sets the rules mapping cache names to the XML cache templates the caches are created from.
+   * <P>
+   * When Shiro asks for a cache that the XML configuration does not declare, it is created from the template mapped to
+   * its exact name if any, else from the template of the first pattern matching its name, in iteration order, else
+   * from the {@value #DEFAULT_CACHE_TEMPLATE} template. Patterns use {@code *} as a wildcard matching any sequence of
+   * characters, so that {@code *.authorizationCache} applies to the authorization caches of all realms. This only
+   * applies to caches created after this property is set.
+   * </P>
+   *
+   * @param cacheTemplates the template names, by cache name or name pattern
+   */
+  public void setCacheTemplates(Map<String, String> cacheTemplates) {
+    if (cacheTemplates == null) {
+      this.cacheTemplatePatterns = Collections.emptyMap();
+      this.cacheTemplates = Collections.emptyMap();
+      return;
+    }
+    Map<String, String> templates = new LinkedHashMap<String, String>(cacheTemplates);
+    Map<Pattern, String> patterns = new LinkedHashMap<Pattern, String>();
+    for (Map.Entry<String, String> entry : templates.entrySet()) {
+      if (entry.getKey().indexOf('*') >= 0) {
+        patterns.put(toPattern(entry.getKey()), entry.getValue());
+      }
+    }
+    this.cacheTemplatePatterns = Collections.unmodifiableMap(patterns);
+    this.cacheTemplates = Collections.unmodifiableMap(templates);
+  }
+
+  private static Pattern toPattern(String namePattern) {
+    StringBuilder regex = new StringBuilder();
+    int start = 0;
+    for (int wildcard = namePattern.indexOf('*'); wildcard >= 0; wildcard = namePattern.indexOf('*', start)) {
+      if (wildcard > start) {
+        regex.append(Pattern.quote(namePattern.substring(start, wildcard)));
+      }
+      regex.append(".*");
+      start = wildcard + 1;
+    }
+    if (start < namePattern.length()) {
+      regex.append(Pattern.quote(namePattern.substring(start)));
+    }
+    return Pattern.compile(regex.toString());
+  }
+
+  /**
+   * Returns the name of the XML cache template the named cache is created from.
+   */
+  String templateFor(String name) {
+    String template = cacheTemplates.get(name);
+    if (template != null) {
+      return template;
+    }
+    for (Map.Entry<Pattern, String> entry : cacheTemplatePatterns.entrySet()) {
+      if (entry.getKey().matcher(name).matches()) {
+        return entry.getValue();
+      }
+    }
+    return DEFAULT_CACHE_TEMPLATE;
+  }
+
+  /**
+   * Returns the names of the caches whose {@code size()} is answered in constant time from an event-maintained
+   * counter rather than by iterating over all their entries.
+   *
+   * @return the names of the caches using {@link EhcacheShiro.SizeMode#COUNTED}
+   */
+  public Set<String> getCountedSizeCaches() {
+    return countedSizeCaches;
+  }
+
+  /**
+   * Sets the names of the caches whose {@code size()} is answered in constant time from an event-maintained
+   * counter rather than by iterating over all their entries.
+   * <P>
+   * This only applies to caches acquired after this property is set.
+   * </P>
+   *
+   * @param countedSizeCaches the names of the caches using {@link EhcacheShiro.SizeMode#COUNTED}
+   */
+  public void setCountedSizeCaches(Set<String> countedSizeCaches) {
+    this.countedSizeCaches = countedSizeCaches == null ? Collections.<String>emptySet()
+            : Collections.unmodifiableSet(new HashSet<String>(countedSizeCaches));
+  }
+
+  /**
+   * Returns the interval at which the counters of the counted size caches are reconciled with their cache.
+   *
+   * @return the reconcile interval, in milliseconds
+   */
+  public long getSizeReconcileIntervalMillis() {
+    return sizeReconcileIntervalMillis;
+  }
+
+  /**
+   * Sets the interval at which the counters of the counted size caches are reconciled with their cache.
+   * <P>
+   * This only applies to caches acquired after this property is set.
+   * </P>
+   *
+   * @param sizeReconcileIntervalMillis the reconcile interval, in milliseconds
+   */
+  public void setSizeReconcileIntervalMillis(long sizeReconcileIntervalMillis) {
+    if (sizeReconcileIntervalMillis <= 0) {
+      throw new IllegalArgumentException("Size reconcile interval must be positive.");
+    }
+    this.sizeReconcileIntervalMillis = sizeReconcileIntervalMillis;
+  }
+
+  /**
+   * Returns the names of the caches whose {@code put} overwrites the current value in a single operation and
+   * returns {@code null} instead of the previous value.
+   *
+   * @return the names of the caches using {@link EhcacheShiro.PutMode#BLIND}
+   */
+  public Set<String> getBlindPutCaches() {
+    return blindPutCaches;
+  }
+
+  /**
+   * Sets the names of the caches whose {@code put} overwrites the current value in a single operation and
+   * returns {@code null} instead of the previous value.
+   * <P>
+   * This only applies to caches acquired after this property is set.
+   * </P>
+   *
+   * @param blindPutCaches the names of the caches using {@link EhcacheShiro.PutMode#BLIND}
+   */
+  public void setBlindPutCaches(Set<String> blindPutCaches) {
+    this.blindPutCaches = blindPutCaches == null ? Collections.<String>emptySet()
+            : Collections.unmodifiableSet(new HashSet<String>(blindPutCaches));
+  }
+
+  /**
+   * Returns the names of the caches whose {@code remove} deletes the mapping without reading it and returns
+   * {@code null} instead of the removed value.
+   *
+   * @return the names of the caches using {@link EhcacheShiro.RemoveMode#BLIND}
+   */
+  public Set<String> getBlindRemoveCaches() {
+    return blindRemoveCaches;
+  }
+
+  /**
+   * Sets the names of the caches whose {@code remove} deletes the mapping without reading it and returns
+   * {@code null} instead of the removed value.
+   * <P>
+   * This only applies to caches acquired after this property is set.
+   * </P>
+   *
+   * @param blindRemoveCaches the names of the caches using {@link EhcacheShiro.RemoveMode#BLIND}
+   */
+  public void setBlindRemoveCaches(Set<String> blindRemoveCaches) {
+    this.blindRemoveCaches = blindRemoveCaches == null ? Collections.<String>emptySet()
+            : Collections.unmodifiableSet(new HashSet<String>(blindRemoveCaches));
+  }
+
+  /**
+   * Returns the names of the caches maintaining an index of their sessions ordered by timeout.
+   *
+   * @return the names of the caches with an {@link EhcacheShiro#setExpiryIndexed(boolean) expiry index}
+   */
+  public Set<String> getExpiryIndexedCaches() {
+    return expiryIndexedCaches;
+  }
+
+  /**
+   * Sets the names of the caches maintaining an index of their sessions ordered by timeout.
+   * <P>
+   * This only applies to caches acquired after this property is set.
+   * </P>
+   *
+   * @param expiryIndexedCaches the names of the caches with an
+   *                            {@link EhcacheShiro#setExpiryIndexed(boolean) expiry index}
+   */
+  public void setExpiryIndexedCaches(Set<String> expiryIndexedCaches) {
+    this.expiryIndexedCaches = expiryIndexedCaches == null ? Collections.<String>emptySet()
+            : Collections.unmodifiableSet(new HashSet<String>(expiryIndexedCaches));
+  }
+
+  /**
+   * Returns the names of the caches where concurrent misses on the same key wait for a single load.
+   *
+   * @return the names of the caches using {@link EhcacheShiro.GetMode#SINGLE_FLIGHT}
+   */
+  public Set<String> getSingleFlightCaches() {
+    return singleFlightCaches;
+  }
+
+  /**
+   * Sets the names of the caches where concurrent misses on the same key wait for a single load, typically the
+   * authentication and authorization caches of the realms.
+   * <P>
+   * This only applies to caches acquired after this property is set.
+   * </P>
+   *
+   * @param singleFlightCaches the names of the caches using {@link EhcacheShiro.GetMode#SINGLE_FLIGHT}
+   */
+  public void setSingleFlightCaches(Set<String> singleFlightCaches) {
+    this.singleFlightCaches = singleFlightCaches == null ? Collections.<String>emptySet()
+            : Collections.unmodifiableSet(new HashSet<String>(singleFlightCaches));
+  }
+
+  /**
+   * Returns the names of the session caches coalescing the writes that only change the last access time of sessions.
+   *
+   * @return the names of the caches with {@link EhcacheShiro#setTouchCoalescing(java.time.Duration) touch coalescing}
+   */
+  public Set<String> getTouchCoalescingCaches() {
+    return touchCoalescingCaches;
+  }
+
+  /**
+   * Sets the names of the session caches coalescing the writes that only change the last access time of sessions.
+   * <P>
+   * This only applies to caches acquired after this property is set.
+   * </P>
+   *
+   * @param touchCoalescingCaches the names of the caches with
+   *                              {@link EhcacheShiro#setTouchCoalescing(java.time.Duration) touch coalescing}
+   */
+  public void setTouchCoalescingCaches(Set<String> touchCoalescingCaches) {
+    this.touchCoalescingCaches = touchCoalescingCaches == null ? Collections.<String>emptySet()
+            : Collections.unmodifiableSet(new HashSet<String>(touchCoalescingCaches));
+  }
+
+  /**
+   * Returns the interval at which the touched sessions of the touch coalescing caches are written to the cache.
+   *
+   * @return the flush interval, in milliseconds
+   */
+  public long getTouchFlushIntervalMillis() {
+    return touchFlushIntervalMillis;
+  }
+
+  /**
+   * Sets the interval at which the touched sessions of the touch coalescing caches are written to the cache.
+   *
+   * @param touchFlushIntervalMillis the flush interval, in milliseconds
+   */
+  public void setTouchFlushIntervalMillis(long touchFlushIntervalMillis) {
+    if (touchFlushIntervalMillis <= 0) {
+      throw new IllegalArgumentException("Touch flush interval must be positive.");
+    }
+    this.touchFlushIntervalMillis = touchFlushIntervalMillis;
+  }
+
+  /**
+   * Returns the names of the session caches storing sessions with their attributes serialized one by one.
+   *
+   * @return the names of the delta storage caches
+   */
+  public Set<String> getDeltaStorageCaches() {
+    return deltaStorageCaches;
+  }
+
+  /**
+   * Sets the names of the session caches storing sessions with their attributes serialized one by one.
+   * <P>
+   * This only applies to caches acquired after this property is set.
+   * </P>
+   *
+   * @param deltaStorageCaches the names of the caches with {@link EhcacheShiro#setDeltaStorage(boolean) delta storage}
+   */
+  public void setDeltaStorageCaches(Set<String> deltaStorageCaches) {
+    this.deltaStorageCaches = deltaStorageCaches == null ? Collections.<String>emptySet()
+            : Collections.unmodifiableSet(new HashSet<String>(deltaStorageCaches));
+  }
+
+  /**
+   * Returns the names of the session caches stored with the off-heap session storage profile.
+   *
+   * @return the names of the off-heap session caches
+   */
+  public Set<String> getOffHeapSessionCaches() {
+    return offHeapSessionCaches;
+  }
+
+  /**
+   * Sets the names of the session caches stored with the off-heap session storage profile.
+   * <P>
+   * These caches keep a small hot set of {@link #getOffHeapSessionHeapEntries()} sessions on heap in front of an
+   * off-heap tier of {@link #getOffHeapSessionSizeMB()} megabytes, replacing the resources configured in XML, and store
+   * their keys and values with the compact {@link SessionIdSerializer} and {@link SimpleSessionSerializer}. Most
+   * sessions then live outside of the Java heap, where they neither fill the old generation nor lengthen garbage
+   * collection pauses. Their put and remove modes are left to {@link #setBlindPutCaches(Set)} and
+   * {@link #setBlindRemoveCaches(Set)}; listing them there as well is recommended, since Shiro ignores the previous
+   * sessions that would otherwise be read and deserialized from the off-heap tier on every write. The JVM must allow
+   * enough direct memory, with {@code -XX:MaxDirectMemorySize}. This applies to the caches declared in the XML
+   * configuration when this instance creates the Ehcache {@code CacheManager}, and to the caches it creates
+   * afterwards.
+   * </P>
+   *
+   * @param offHeapSessionCaches the names of the off-heap session caches
+   */
+  public void setOffHeapSessionCaches(Set<String> offHeapSessionCaches) {
+    this.offHeapSessionCaches = offHeapSessionCaches == null ? Collections.<String>emptySet()
+            : Collections.unmodifiableSet(new HashSet<String>(offHeapSessionCaches));
+  }
+
+  /**
+   * Returns the number of sessions the off-heap session caches keep on heap.
+   *
+   * @return the heap tier size, in entries
+   */
+  public long getOffHeapSessionHeapEntries() {
+    return offHeapSessionHeapEntries;
+  }
+
+  /**
+   * Sets the number of sessions the off-heap session caches keep on heap.
+   *
+   * @param offHeapSessionHeapEntries the heap tier size, in entries
+   */
+  public void setOffHeapSessionHeapEntries(long offHeapSessionHeapEntries) {
+    if (offHeapSessionHeapEntries <= 0) {
+      throw new IllegalArgumentException("Heap entries must be positive.");
+    }
+    this.offHeapSessionHeapEntries = offHeapSessionHeapEntries;
+  }
+
+  /**
+   * Returns the size of the off-heap tier of the off-heap session caches.
+   *
+   * @return the off-heap tier size, in megabytes
+   */
+  public long getOffHeapSessionSizeMB() {
+    return offHeapSessionSizeMB;
+  }
+
+  /**
+   * Sets the size of the off-heap tier of the off-heap session caches.
+   *
+   * @param offHeapSessionSizeMB the off-heap tier size, in megabytes
+   */
+  public void setOffHeapSessionSizeMB(long offHeapSessionSizeMB) {
+    if (offHeapSessionSizeMB <= 0) {
+      throw new IllegalArgumentException("Off-heap size must be positive.");
+    }
+    this.offHeapSessionSizeMB = offHeapSessionSizeMB;
+  }
+
+  /**
+   * Returns the sink to which the changes of the {@link #getWriteBehindCaches() write-behind caches} are written.
+   *
+   * @return the session sink, or {@code null} if none is set
+   */
+  public SessionSink getSessionSink() {
+    return sessionSink;
+  }
+
+  /**
+   * Sets the sink to which the changes of the {@link #getWriteBehindCaches() write-behind caches} are written.
+   * <P>
+   * This only applies to the Ehcache {@code CacheManager} created by this instance, and to the caches created after
+   * this property is set.
+   * </P>
+   *
+   * @param sessionSink the session sink
+   */
+  public void setSessionSink(SessionSink sessionSink) {
+    this.sessionSink = sessionSink;
+  }
+
+  /**
+   * Returns the names of the caches whose changes are written behind to the {@link #getSessionSink() session sink}.
+   *
+   * @return the names of the write-behind caches
+   */
+  public Set<String> getWriteBehindCaches() {
+    return writeBehindCaches;
+  }
+
+  /**
+   * Sets the names of the caches whose changes are written behind to the {@link #getSessionSink() session sink}.
+   * <P>
+   * Puts and removes on these caches are queued, coalesced per key and written to the sink in batches of up to
+   * {@value #WRITE_BEHIND_BATCH_SIZE} changes at least every {@link #getWriteBehindMaxDelayMillis() max delay}, on
+   * Ehcache's write-behind threads. The threads using the cache only wait when the queue of
+   * {@value #WRITE_BEHIND_QUEUE_SIZE} changes is full. Sessions expiring from these caches are deleted from the sink
+   * through the same queue, evicted sessions are kept, and failing sink calls are retried, see
+   * {@link SessionSinkWriter}. This applies to the caches declared in the XML configuration when this instance creates
+   * the Ehcache {@code CacheManager}, and to the caches it creates afterwards.
+   * </P>
+   *
+   * @param writeBehindCaches the names of the write-behind caches
+   */
+  public void setWriteBehindCaches(Set<String> writeBehindCaches) {
+    this.writeBehindCaches = writeBehindCaches == null ? Collections.<String>emptySet()
+            : Collections.unmodifiableSet(new HashSet<String>(writeBehindCaches));
+  }
+
+  /**
+   * Returns the maximum time a change to a write-behind cache waits before being written to the session sink.
+   *
+   * @return the maximum write delay, in milliseconds
+   */
+  public long getWriteBehindMaxDelayMillis() {
+    return writeBehindMaxDelayMillis;
+  }
+
+  /**
+   * Sets the maximum time a change to a write-behind cache waits before being written to the session sink.
+   *
+   * @param writeBehindMaxDelayMillis the maximum write delay, in milliseconds
+   */
+  public void setWriteBehindMaxDelayMillis(long writeBehindMaxDelayMillis) {
+    if (writeBehindMaxDelayMillis <= 0) {
+      throw new IllegalArgumentException("Write-behind delay must be positive.");
+    }
+    this.writeBehindMaxDelayMillis = writeBehindMaxDelayMillis;
+  }
+
+  /**
+   * Returns whether {@link #init()} creates the caches before returning.
+   *
+   * @return {@code true} if caches are created eagerly
+   */
+  public boolean isEagerInit() {
+    return eagerInit;
+  }
+
+  /**
+   * Sets whether {@link #init()} creates the caches before returning.
+   * <P>
+   * When enabled, {@code init()} creates, in parallel on up to {@link #getEagerInitThreads()} threads, the caches of
+   * the Ehcache {@code CacheManager}, including the caches declared in the XML configuration, and the
+   * {@link #getEagerCaches() eager caches}, along with their wrappers. Once it returns, the first requests only look the
+   * caches up. This also applies to an {@link #setCacheManager injected} {@code CacheManager}. Declared caches whose
+   * keys or values are not {@code Object}, which Shiro cannot acquire, are skipped.
+   * </P>
+   *
+   * @param eagerInit whether caches should be created eagerly
+   */
+  public void setEagerInit(boolean eagerInit) {
+    this.eagerInit = eagerInit;
+  }
+
+  /**
+   * Returns the names of the caches not declared in the XML configuration that {@link #init()} creates eagerly.
+   *
+   * @return the names of the eager caches
+   */
+  public Set<String> getEagerCaches() {
+    return eagerCaches;
+  }
+
+  /**
+   * Sets the names of the caches not declared in the XML configuration that {@link #init()} creates eagerly, for
+   * instance the authentication and authorization caches of the realms.
+   * <P>
+   * This only applies when {@link #setEagerInit(boolean) eager initialization} is enabled.
+   * </P>
+   *
+   * @param eagerCaches the names of the eager caches
+   */
+  public void setEagerCaches(Set<String> eagerCaches) {
+    this.eagerCaches = eagerCaches == null ? Collections.<String>emptySet()
+            : Collections.unmodifiableSet(new LinkedHashSet<String>(eagerCaches));
+  }
+
+  /**
+   * Returns the maximum number of threads creating caches during an eager {@link #init()}.
+   *
+   * @return the maximum number of threads
+   */
+  public int getEagerInitThreads() {
+    return eagerInitThreads;
+  }
+
+  /**
+   * Sets the maximum number of threads creating caches during an eager {@link #init()}.
+   *
+   * @param eagerInitThreads the maximum number of threads
+   */
+  public void setEagerInitThreads(int eagerInitThreads) {
+    if (eagerInitThreads <= 0) {
+      throw new IllegalArgumentException("Eager init threads must be positive.");
+    }
+    this.eagerInitThreads = eagerInitThreads;
+  }
+
   /**
    * {@inheritDoc}
+   * <P>
+   * Wrappers are memoized per cache name: the first call for a given name resolves (or creates) the underlying
+   * {@link org.ehcache.Cache} exactly once, even when many threads ask for the same cold name concurrently, and every
+   * subsequent call is two lock-free map reads, the memoized wrapper and the cache the Ehcache {@code CacheManager}
+   * currently holds under that name. A wrapper whose cache was removed from the {@code CacheManager}, and possibly
+   * created again, is dropped and a new one is returned. Creating a cache only blocks the callers asking for the same
+   * name, and a failed creation is attempted again by the next call.
+   * </P>
    */
+  @SuppressWarnings("unchecked")
   public <K, V> Cache<K, V> getCache(String name) throws CacheException {
     log.trace("Acquiring EhcacheShiro instance named [{}]", name);
 
+    FutureTask<EhcacheShiro<Object, Object>> creation = caches.get(name);
+    if (creation != null) {
+      EhcacheShiro<Object, Object> cache = await(name, creation);
+      if (isCurrent(name, cache)) {
+        return (Cache<K, V>) cache;
+      }
+      if (caches.remove(name, creation)) {
+        log.info("Cache with name {} is no longer held by the CacheManager.  Acquiring it again.", name);
+        release(cache);
+      }
+    }
+
+    return (Cache<K, V>) create(name);
+  }
+
+  /**
+   * Creates the wrapper of the named cache, unless another thread already is.
+   * <P>
+   * The creation is published in the map as a task and run outside of it, so that creating a cache, which may take a
+   * while, never blocks the acquisition of other names.
+   * </P>
+   */
+  private EhcacheShiro<Object, Object> create(String name) {
+    FutureTask<EhcacheShiro<Object, Object>> creation = new FutureTask<EhcacheShiro<Object, Object>>(() -> newEhcacheShiro(name));
+    FutureTask<EhcacheShiro<Object, Object>> existing = caches.putIfAbsent(name, creation);
+    if (existing != null) {
+      return await(name, existing);
+    }
+    creation.run();
+    return await(name, creation);
+  }
+
+  /**
+   * Waits for the given creation of the named wrapper, and forgets it if it failed so that the next call retries.
+   */
+  private EhcacheShiro<Object, Object> await(String name, FutureTask<EhcacheShiro<Object, Object>> creation) {
+    try {
+      return creation.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CacheException("Interrupted while acquiring cache [" + name + "]", e);
+    } catch (ExecutionException e) {
+      caches.remove(name, creation);
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new CacheException(cause);
+    }
+  }
+
+  /**
+   * Returns whether the given wrapper still wraps the cache the Ehcache {@code CacheManager} holds under its name.
+   */
+  private boolean isCurrent(String name, EhcacheShiro<Object, Object> cache) {
+    org.ehcache.CacheManager cacheManager = manager;
+    if (cacheManager == null) {
+      return false;
+    }
+    try {
+      return cacheManager.getCache(name, Object.class, Object.class) == cache.getWrappedCache();
+    } catch (IllegalStateException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Stops the background work of a wrapper that is no longer handed out.
+   */
+  private static void release(EhcacheShiro<Object, Object> cache) {
+    try {
+      cache.close();
+    } catch (RuntimeException e) {
+      log.warn("Releasing EhcacheShiro wrapping cache [" + cache.getWrappedCache() + "] failed", e);
+    }
+  }
+
+  private EhcacheShiro<Object, Object> newEhcacheShiro(String name) {
     try {
       org.ehcache.Cache<Object, Object> cache = ensureCacheManager().getCache(name, Object.class, Object.class);
 
@@ -120,7 +776,30 @@ public class EhcacheShiroManager implements CacheManager, Initializable, Destroy
         log.info("Using existing EhcacheShiro named [{}]", name);
       }
 
-      return new EhcacheShiro<K, V>(cache);
+      EhcacheShiro<Object, Object> ehcacheShiro = new EhcacheShiro<Object, Object>(cache);
+      if (countedSizeCaches.contains(name)) {
+        ehcacheShiro.setSizeReconcileInterval(Duration.ofMillis(sizeReconcileIntervalMillis));
+        ehcacheShiro.setSizeMode(EhcacheShiro.SizeMode.COUNTED);
+      }
+      if (blindPutCaches.contains(name)) {
+        ehcacheShiro.setPutMode(EhcacheShiro.PutMode.BLIND);
+      }
+      if (blindRemoveCaches.contains(name)) {
+        ehcacheShiro.setRemoveMode(EhcacheShiro.RemoveMode.BLIND);
+      }
+      if (expiryIndexedCaches.contains(name)) {
+        ehcacheShiro.setExpiryIndexed(true);
+      }
+      if (singleFlightCaches.contains(name)) {
+        ehcacheShiro.setGetMode(EhcacheShiro.GetMode.SINGLE_FLIGHT);
+      }
+      if (touchCoalescingCaches.contains(name)) {
+        ehcacheShiro.setTouchCoalescing(Duration.ofMillis(touchFlushIntervalMillis));
+      }
+      if (deltaStorageCaches.contains(name)) {
+        ehcacheShiro.setDeltaStorage(true);
+      }
+      return ehcacheShiro;
     } catch (MalformedURLException e) {
       throw new CacheException(e);
     }
@@ -128,10 +807,12 @@ public class EhcacheShiroManager implements CacheManager, Initializable, Destroy
 
   private org.ehcache.Cache<Object, Object> createCache(String name) {
     try {
-      XmlConfiguration xmlConfiguration = getConfiguration();
-      CacheConfigurationBuilder<Object, Object> configurationBuilder = xmlConfiguration.newCacheConfigurationBuilderFromTemplate(
-              "defaultCacheConfiguration", Object.class, Object.class);
-      CacheConfiguration<Object, Object> cacheConfiguration = configurationBuilder.build();
+      String template = templateFor(name);
+      CacheConfigurationBuilder<Object, Object> configurationBuilder = templateConfiguration(template);
+      if (configurationBuilder == null) {
+        throw new CacheException("Cache template [" + template + "] of cache [" + name + "] is not defined");
+      }
+      CacheConfiguration<Object, Object> cacheConfiguration = customize(name, configurationBuilder).build();
       return ensureCacheManager().createCache(name, cacheConfiguration);
     } catch (InstantiationException e) {
       throw new CacheException(e);
@@ -144,15 +825,127 @@ public class EhcacheShiroManager implements CacheManager, Initializable, Destroy
     }
   }
 
+  /**
+   * Returns a configuration builder of the given XML cache template for a new cache, or {@code null} if the template
+   * is not defined.
+   * <P>
+   * Each template is resolved once and its builder kept, along with the classes of the expiry policy and eviction
+   * advisor it declares: these are instantiated again for every cache, as nothing requires them to be stateless. The
+   * built-in policies are immutable values and stay shared. A template whose instances cannot be created again, such
+   * as a legacy {@code Expiry} adapted by Ehcache, is resolved again for every cache.
+   * </P>
+   */
+  private CacheConfigurationBuilder<Object, Object> templateConfiguration(String template)
+          throws MalformedURLException, InstantiationException, IllegalAccessException, ClassNotFoundException {
+    TemplateConfiguration templateConfiguration = templateConfigurations.get(template);
+    if (templateConfiguration == null) {
+      XmlConfiguration xmlConfiguration = getConfiguration();
+      CacheConfigurationBuilder<Object, Object> configurationBuilder = xmlConfiguration.newCacheConfigurationBuilderFromTemplate(
+              template, Object.class, Object.class);
+      if (configurationBuilder == null) {
+        return null;
+      }
+      templateConfiguration = new TemplateConfiguration(configurationBuilder.build(),
+              xmlConfiguration.newCacheConfigurationBuilderFromTemplate(template, Object.class, Object.class).build());
+      TemplateConfiguration existing = templateConfigurations.putIfAbsent(template, templateConfiguration);
+      if (existing != null) {
+        templateConfiguration = existing;
+      }
+    }
+
+    if (templateConfiguration.resolvedPerCache) {
+      return getConfiguration().newCacheConfigurationBuilderFromTemplate(template, Object.class, Object.class);
+    }
+    return templateConfiguration.newConfigurationBuilder();
+  }
+
+  /**
+   * Returns the wrapped manager, creating and initializing it on the first call.
+   * <P>
+   * Concurrent first calls create a single manager: it is only published once initialized, and later calls read it
+   * without locking.
+   * </P>
+   */
   private org.ehcache.CacheManager ensureCacheManager() throws MalformedURLException {
-    if (manager == null) {
-      manager = CacheManagerBuilder.newCacheManager(getConfiguration());
-      manager.init();
+    org.ehcache.CacheManager cacheManager = manager;
+    if (cacheManager == null) {
+      synchronized (managerLock) {
+        cacheManager = manager;
+        if (cacheManager == null) {
+          cacheManager = newCacheManager(customize(getConfiguration()));
+          cacheManager.init();
 
-      cacheManagerImplicitlyCreated = true;
+          cacheManagerImplicitlyCreated = true;
+          manager = cacheManager;
+        }
+      }
     }
 
-    return manager;
+    return cacheManager;
+  }
+
+  org.ehcache.CacheManager newCacheManager(Configuration configuration) {
+    return CacheManagerBuilder.newCacheManager(configuration);
+  }
+
+  private boolean isWriteBehind(String name) {
+    return sessionSink != null && writeBehindCaches.contains(name);
+  }
+
+  private boolean isCustomized(String name) {
+    return isWriteBehind(name) || offHeapSessionCaches.contains(name);
+  }
+
+  /**
+   * Returns the given configuration with the off-heap session storage and write-behind applied to the caches it
+   * declares.
+   */
+  private Configuration customize(Configuration configuration) {
+    Map<String, CacheConfiguration<?, ?>> cacheConfigurations = new HashMap<String, CacheConfiguration<?, ?>>(configuration.getCacheConfigurations());
+    boolean changed = false;
+    for (Map.Entry<String, CacheConfiguration<?, ?>> entry : cacheConfigurations.entrySet()) {
+      if (isCustomized(entry.getKey())) {
+        entry.setValue(customize(entry.getKey(), CacheConfigurationBuilder.newCacheConfigurationBuilder(entry.getValue())).build());
+        changed = true;
+      }
+    }
+    if (!changed) {
+      return configuration;
+    }
+
+    Collection<ServiceCreationConfiguration<?>> services = configuration.getServiceCreationConfigurations();
+    return new DefaultConfiguration(cacheConfigurations, configuration.getClassLoader(),
+            services.toArray(new ServiceCreationConfiguration<?>[services.size()]));
+  }
+
+  private <K, V> CacheConfigurationBuilder<K, V> customize(String name, CacheConfigurationBuilder<K, V> builder) {
+    if (offHeapSessionCaches.contains(name)) {
+      builder = withOffHeapSessionStorage(builder);
+    }
+    if (isWriteBehind(name)) {
+      builder = withWriteBehind(builder);
+    }
+    return builder;
+  }
+
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private <K, V> CacheConfigurationBuilder<K, V> withOffHeapSessionStorage(CacheConfigurationBuilder<K, V> builder) {
+    return builder.withResourcePools(ResourcePoolsBuilder.newResourcePoolsBuilder()
+            .heap(offHeapSessionHeapEntries, EntryUnit.ENTRIES)
+            .offheap(offHeapSessionSizeMB, MemoryUnit.MB))
+            .withKeySerializer((Class) SessionIdSerializer.class)
+            .withValueSerializer((Class) SimpleSessionSerializer.class);
+  }
+
+  private <K, V> CacheConfigurationBuilder<K, V> withWriteBehind(CacheConfigurationBuilder<K, V> builder) {
+    SessionSinkWriter writer = new SessionSinkWriter(sessionSink);
+    return builder.add(new DefaultCacheLoaderWriterConfiguration(writer))
+            .add(CacheEventListenerConfigurationBuilder.newEventListenerConfiguration(writer,
+                    SessionSinkWriter.EVENT_TYPES).unordered().asynchronous())
+            .add(WriteBehindConfigurationBuilder.newBatchedWriteBehindConfiguration(writeBehindMaxDelayMillis,
+                    TimeUnit.MILLISECONDS, WRITE_BEHIND_BATCH_SIZE)
+                    .enableCoalescing()
+                    .queueSize(WRITE_BEHIND_QUEUE_SIZE));
   }
 
   private URL getResource() throws MalformedURLException {
@@ -173,17 +966,36 @@ public class EhcacheShiroManager implements CacheManager, Initializable, Destroy
   }
 
   private XmlConfiguration getConfiguration() throws MalformedURLException {
-    if (cacheConfiguration == null) {
-      cacheConfiguration = new XmlConfiguration(getResource());
+    XmlConfiguration configuration = cacheConfiguration;
+    if (configuration == null) {
+      synchronized (managerLock) {
+        configuration = cacheConfiguration;
+        if (configuration == null) {
+          configuration = new XmlConfiguration(getResource());
+          cacheConfiguration = configuration;
+        }
+      }
     }
 
-    return cacheConfiguration;
+    return configuration;
   }
 
   public void destroy() throws Exception {
-    if (cacheManagerImplicitlyCreated && manager != null) {
-      manager.close();
-      manager = null;
+    for (FutureTask<EhcacheShiro<Object, Object>> creation : caches.values()) {
+      if (creation.isDone()) {
+        try {
+          release(creation.get());
+        } catch (ExecutionException e) {
+          // never created
+        }
+      }
+    }
+    caches.clear();
+    synchronized (managerLock) {
+      if (cacheManagerImplicitlyCreated && manager != null) {
+        manager.close();
+        manager = null;
+      }
     }
   }
 
@@ -198,14 +1010,141 @@ public class EhcacheShiroManager implements CacheManager, Initializable, Destroy
    * However, if no {@code CacheManager} has been set a new {@link org.ehcache.Cache} will be initialized.
    * It will use {@code ehcache.xml} configuration file at the root of the classpath.
    * </P>
+   * <P>
+   * With {@link #setEagerInit(boolean) eager initialization}, the caches are then created before this method returns.
+   * </P>
    *
    * @throws org.apache.shiro.cache.CacheException if there are any CacheExceptions thrown by EhCache.
    */
   public void init() throws ShiroException {
+    org.ehcache.CacheManager cacheManager;
     try {
-      ensureCacheManager();
+      cacheManager = ensureCacheManager();
     } catch (MalformedURLException e) {
       throw new ShiroException(e);
     }
+
+    if (eagerInit) {
+      createCaches(eagerCacheNames(cacheManager));
+    }
+  }
+
+  /**
+   * Returns the names of the caches to create eagerly: the declared caches with {@code Object} keys and values, which
+   * are the only ones Shiro can acquire, and the {@link #getEagerCaches() eager caches}.
+   */
+  private Set<String> eagerCacheNames(org.ehcache.CacheManager cacheManager) {
+    Map<String, CacheConfiguration<?, ?>> declared = cacheManager.getRuntimeConfiguration().getCacheConfigurations();
+    Set<String> names = new LinkedHashSet<String>();
+    for (Map.Entry<String, CacheConfiguration<?, ?>> entry : declared.entrySet()) {
+      if (isUntyped(entry.getValue())) {
+        names.add(entry.getKey());
+      } else {
+        log.debug("Not creating typed cache [{}] eagerly, it cannot be acquired through Shiro", entry.getKey());
+      }
+    }
+    for (String name : eagerCaches) {
+      CacheConfiguration<?, ?> configuration = declared.get(name);
+      if (configuration == null || isUntyped(configuration)) {
+        names.add(name);
+      } else {
+        log.warn("Not creating eager cache [{}]: it is declared with {} keys and {} values, while Shiro caches use Object",
+                name, configuration.getKeyType().getName(), configuration.getValueType().getName());
+      }
+    }
+    return names;
+  }
+
+  private static boolean isUntyped(CacheConfiguration<?, ?> configuration) {
+    return configuration.getKeyType() == Object.class && configuration.getValueType() == Object.class;
+  }
+
+  /**
+   * Acquires the named caches in parallel on a bounded pool, and waits for all of them.
+   */
+  private void createCaches(Collection<String> names) {
+    int threads = Math.min(eagerInitThreads, names.size());
+    if (threads == 0) {
+      return;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "ehcache-shiro-init-" + INIT_THREAD_COUNT.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    try {
+      Map<String, Future<?>> creations = new LinkedHashMap<String, Future<?>>();
+      for (String name : names) {
+        creations.put(name, executor.submit(() -> getCache(name)));
+      }
+      for (Map.Entry<String, Future<?>> creation : creations.entrySet()) {
+        try {
+          creation.getValue().get();
+        } catch (ExecutionException e) {
+          throw new CacheException("Eager creation of cache [" + creation.getKey() + "] failed", e.getCause());
+        }
+      }
+      log.info("Eagerly created {} caches", names.size());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CacheException("Interrupted while eagerly creating caches", e);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * A resolved XML cache template, and what must not be shared by the caches created from it.
+   */
+  private static final class TemplateConfiguration {
+
+    private final CacheConfiguration<Object, Object> configuration;
+
+    private final Class<?> expiryPolicyClass;
+
+    private final Class<?> evictionAdvisorClass;
+
+    private final boolean resolvedPerCache;
+
+    /**
+     * Compares two resolutions of the template: the instances they do not share were created for each of them.
+     */
+    TemplateConfiguration(CacheConfiguration<Object, Object> configuration, CacheConfiguration<Object, Object> other) {
+      this.configuration = configuration;
+      this.expiryPolicyClass = perCacheClass(configuration.getExpiryPolicy(), other.getExpiryPolicy());
+      this.evictionAdvisorClass = perCacheClass(configuration.getEvictionAdvisor(), other.getEvictionAdvisor());
+      this.resolvedPerCache = !isInstantiable(expiryPolicyClass) || !isInstantiable(evictionAdvisorClass);
+    }
+
+    @SuppressWarnings("unchecked")
+    CacheConfigurationBuilder<Object, Object> newConfigurationBuilder() throws InstantiationException, IllegalAccessException {
+      CacheConfigurationBuilder<Object, Object> builder = CacheConfigurationBuilder.newCacheConfigurationBuilder(configuration);
+      if (expiryPolicyClass != null) {
+        builder = builder.withExpiry((ExpiryPolicy<Object, Object>) expiryPolicyClass.newInstance());
+      }
+      if (evictionAdvisorClass != null) {
+        builder = builder.withEvictionAdvisor((EvictionAdvisor<Object, Object>) evictionAdvisorClass.newInstance());
+      }
+      return builder;
+    }
+
+    private static Class<?> perCacheClass(Object instance, Object other) {
+      return instance == null || instance.equals(other) ? null : instance.getClass();
+    }
+
+    private static boolean isInstantiable(Class<?> type) {
+      if (type == null) {
+        return true;
+      }
+      try {
+        type.getConstructor();
+        return true;
+      } catch (NoSuchMethodException e) {
+        return false;
+      }
+    }
   }
 }
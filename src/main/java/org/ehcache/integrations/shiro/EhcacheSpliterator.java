@@ -0,0 +1,99 @@
+/**
+ * Copyright Terracotta, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ehcache.integrations.shiro;
+
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+/**
+ * {@link Spliterator} over the weakly consistent iterator of an {@link org.ehcache.Cache}.
+ * <P>
+ * Ehcache iterators cannot be split, so this spliterator splits by handing batches of elements read from the iterator
+ * over to array backed spliterators. Batches start small, as reading an entry from an off-heap or disk tier is
+ * costly, and double on each split so that large caches do not produce too many tasks. The size is only an estimate
+ * and the elements are never {@code null}.
+ * </P>
+ */
+class EhcacheSpliterator<T> implements Spliterator<T> {
+
+  static final int BATCH_UNIT = 64;
+  static final int MAX_BATCH = 1 << 14;
+
+  private final Iterator<T> iterator;
+
+  private final int characteristics;
+
+  private long estimatedSize;
+
+  private int batch = BATCH_UNIT;
+
+  EhcacheSpliterator(Iterator<T> iterator, long estimatedSize, int additionalCharacteristics) {
+    this.iterator = iterator;
+    this.estimatedSize = estimatedSize;
+    this.characteristics = additionalCharacteristics | Spliterator.NONNULL | Spliterator.CONCURRENT;
+  }
+
+  public boolean tryAdvance(Consumer<? super T> action) {
+    if (action == null) {
+      throw new NullPointerException();
+    }
+    if (iterator.hasNext()) {
+      action.accept(iterator.next());
+      return true;
+    }
+    return false;
+  }
+
+  @Override
+  public void forEachRemaining(Consumer<? super T> action) {
+    if (action == null) {
+      throw new NullPointerException();
+    }
+    while (iterator.hasNext()) {
+      action.accept(iterator.next());
+    }
+  }
+
+  public Spliterator<T> trySplit() {
+    if (!iterator.hasNext() || estimatedSize <= 1) {
+      return null;
+    }
+
+    int size = (int) Math.min(batch, estimatedSize);
+    Object[] elements = new Object[size];
+    int count = 0;
+    while (count < size && iterator.hasNext()) {
+      elements[count++] = iterator.next();
+    }
+
+    batch = Math.min(batch << 1, MAX_BATCH);
+    if (estimatedSize != Long.MAX_VALUE) {
+      estimatedSize = Math.max(estimatedSize - count, 1);
+    }
+    return Spliterators.spliterator(elements, 0, count, characteristics & ~Spliterator.CONCURRENT);
+  }
+
+  public long estimateSize() {
+    return estimatedSize;
+  }
+
+  public int characteristics() {
+    return characteristics;
+  }
+}
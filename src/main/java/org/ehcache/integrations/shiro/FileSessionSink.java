@@ -0,0 +1,150 @@
+/**
+ * Copyright Terracotta, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ehcache.integrations.shiro;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * {@link SessionSink} storing each session as a Java serialized file in a directory.
+ * <P>
+ * Sessions are identified by the string form of their id. Each file is written to a temporary file first and then
+ * moved in place, so a session file is always complete. This sink suits tests and single node deployments; it can be
+ * declared in {@code shiro.ini}:
+ * </P>
+ * <pre>
+ * sessionSink = org.ehcache.integrations.shiro.FileSessionSink
+ * sessionSink.directory = /var/lib/myapp/sessions
+ * cacheManager.sessionSink = $sessionSink
+ * </pre>
+ */
+public class FileSessionSink implements SessionSink {
+
+  private static final String SUFFIX = ".session";
+
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  private volatile File directory;
+
+  public FileSessionSink() {
+  }
+
+  public FileSessionSink(File directory) {
+    this.directory = directory;
+  }
+
+  public File getDirectory() {
+    return directory;
+  }
+
+  public void setDirectory(File directory) {
+    this.directory = directory;
+  }
+
+  public void storeAll(Map<?, ?> sessions) throws IOException {
+    Path directory = ensureDirectory();
+    for (Map.Entry<?, ?> entry : sessions.entrySet()) {
+      Path file = fileOf(directory, entry.getKey());
+      Path temporary = Files.createTempFile(directory, "store", ".tmp");
+      try {
+        OutputStream out = Files.newOutputStream(temporary);
+        try {
+          ObjectOutputStream objectOut = new ObjectOutputStream(out);
+          objectOut.writeObject(entry.getValue());
+          objectOut.flush();
+        } finally {
+          out.close();
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(temporary);
+      }
+    }
+  }
+
+  public void deleteAll(Collection<?> sessionIds) throws IOException {
+    Path directory = ensureDirectory();
+    for (Object sessionId : sessionIds) {
+      Files.deleteIfExists(fileOf(directory, sessionId));
+    }
+  }
+
+  /**
+   * Reads the session stored with the given id.
+   *
+   * @param sessionId the id of the session
+   * @return the stored session, or {@code null} if there is none
+   * @throws IOException if the session file could not be read
+   * @throws ClassNotFoundException if the class of the session could not be found
+   */
+  public Object read(Object sessionId) throws IOException, ClassNotFoundException {
+    InputStream in;
+    try {
+      in = Files.newInputStream(fileOf(ensureDirectory(), sessionId));
+    } catch (NoSuchFileException e) {
+      return null;
+    } catch (FileNotFoundException e) {
+      return null;
+    }
+    try {
+      return new ObjectInputStream(in).readObject();
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Returns the number of sessions stored.
+   *
+   * @return the number of session files in the directory
+   * @throws IOException if the directory could not be listed
+   */
+  public int size() throws IOException {
+    String[] names = ensureDirectory().toFile().list((dir, name) -> name.endsWith(SUFFIX));
+    return names == null ? 0 : names.length;
+  }
+
+  private Path ensureDirectory() throws IOException {
+    File current = directory;
+    if (current == null) {
+      throw new IllegalStateException("The directory of the FileSessionSink is not set.");
+    }
+    return Files.createDirectories(current.toPath());
+  }
+
+  private static Path fileOf(Path directory, Object sessionId) {
+    byte[] bytes = String.valueOf(sessionId).getBytes(StandardCharsets.UTF_8);
+    char[] name = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      name[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+      name[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xF];
+    }
+    return directory.resolve(new String(name) + SUFFIX);
+  }
+}
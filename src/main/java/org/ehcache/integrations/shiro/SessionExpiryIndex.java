@@ -0,0 +1,191 @@
+/**
+ * Copyright Terracotta, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ehcache.integrations.shiro;
+
+import org.apache.shiro.session.InvalidSessionException;
+import org.apache.shiro.session.Session;
+import org.ehcache.event.CacheEvent;
+import org.ehcache.event.CacheEventListener;
+import org.ehcache.event.EventFiring;
+import org.ehcache.event.EventOrdering;
+import org.ehcache.event.EventType;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Index of the keys of the {@link Session}s stored in an {@link org.ehcache.Cache}, bucketed by the time at which
+ * each session times out.
+ * <P>
+ * The index is maintained from the cache events, so it follows every mutation of the cache including evictions and
+ * expirations. Values that are not sessions, or that never time out, are not indexed. As with
+ * {@link EhcacheEntryCounter}, the owner is responsible for calling {@link #reset()} when it clears the cache.
+ * </P>
+ */
+class SessionExpiryIndex<K, V> implements CacheEventListener<K, V> {
+
+  static final long DEFAULT_BUCKET_MILLIS = 60 * 1000L;
+
+  private static final EnumSet<EventType> EVENT_TYPES = EnumSet.of(EventType.CREATED, EventType.UPDATED,
+          EventType.REMOVED, EventType.EXPIRED, EventType.EVICTED);
+
+  private final org.ehcache.Cache<K, V> cache;
+
+  private final long bucketMillis;
+
+  private final ConcurrentMap<K, Long> bucketOfKey = new ConcurrentHashMap<K, Long>();
+
+  private final ConcurrentMap<Long, Set<K>> buckets = new ConcurrentHashMap<Long, Set<K>>();
+
+  SessionExpiryIndex(org.ehcache.Cache<K, V> cache, long bucketMillis) {
+    if (bucketMillis <= 0) {
+      throw new IllegalArgumentException("Bucket duration must be positive.");
+    }
+    this.cache = cache;
+    this.bucketMillis = bucketMillis;
+  }
+
+  /**
+   * Registers this index on the cache and seeds it with the sessions currently present.
+   */
+  void register() {
+    cache.getRuntimeConfiguration().registerCacheEventListener(this, EventOrdering.ORDERED,
+            EventFiring.SYNCHRONOUS, EVENT_TYPES);
+
+    Iterator<org.ehcache.Cache.Entry<K, V>> iterator = cache.iterator();
+    while (iterator.hasNext()) {
+      org.ehcache.Cache.Entry<K, V> entry = iterator.next();
+      index(entry.getKey(), entry.getValue());
+    }
+  }
+
+  void deregister() {
+    cache.getRuntimeConfiguration().deregisterCacheEventListener(this);
+  }
+
+  void reset() {
+    bucketOfKey.clear();
+    buckets.clear();
+  }
+
+  /**
+   * Returns the keys of the sessions that may have timed out at the given time: every session timing out before it,
+   * plus the ones timing out shortly after it, in the same bucket.
+   *
+   * @param time the time, in milliseconds since the epoch
+   * @return the keys of the candidate sessions
+   */
+  Set<K> keysExpiringBefore(long time) {
+    long maxBucket = time / bucketMillis;
+    Set<K> keys = new HashSet<K>();
+    for (Map.Entry<Long, Set<K>> bucket : buckets.entrySet()) {
+      if (bucket.getKey() <= maxBucket) {
+        keys.addAll(bucket.getValue());
+      }
+    }
+    return keys;
+  }
+
+  int size() {
+    return bucketOfKey.size();
+  }
+
+  public void onEvent(CacheEvent<? extends K, ? extends V> event) {
+    switch (event.getType()) {
+      case CREATED:
+      case UPDATED:
+        index(event.getKey(), event.getNewValue());
+        break;
+      case REMOVED:
+      case EXPIRED:
+      case EVICTED:
+        unindex(event.getKey());
+        break;
+      default:
+        break;
+    }
+  }
+
+  private void index(K key, V value) {
+    final Long bucket = bucketOf(value);
+    if (bucket == null) {
+      unindex(key);
+      return;
+    }
+
+    bucketOfKey.compute(key, (k, previous) -> {
+      if (!bucket.equals(previous)) {
+        if (previous != null) {
+          removeFromBucket(previous, k);
+        }
+        buckets.compute(bucket, (b, keys) -> {
+          Set<K> bucketKeys = keys == null ? Collections.newSetFromMap(new ConcurrentHashMap<K, Boolean>()) : keys;
+          bucketKeys.add(k);
+          return bucketKeys;
+        });
+      }
+      return bucket;
+    });
+  }
+
+  private void unindex(K key) {
+    bucketOfKey.computeIfPresent(key, (k, previous) -> {
+      removeFromBucket(previous, k);
+      return null;
+    });
+  }
+
+  private void removeFromBucket(Long bucket, final K key) {
+    buckets.computeIfPresent(bucket, (b, keys) -> {
+      keys.remove(key);
+      return keys.isEmpty() ? null : keys;
+    });
+  }
+
+  private Long bucketOf(V value) {
+    long timeout;
+    Date lastAccessTime;
+    if (value instanceof StoredSession) {
+      StoredSession session = (StoredSession) value;
+      timeout = session.getTimeout();
+      lastAccessTime = session.getLastAccessTime();
+    } else if (value instanceof Session) {
+      Session session = (Session) value;
+      try {
+        timeout = session.getTimeout();
+      } catch (InvalidSessionException e) {
+        return null;
+      }
+      lastAccessTime = session.getLastAccessTime();
+    } else {
+      return null;
+    }
+    if (timeout < 0 || lastAccessTime == null) {
+      return null;
+    }
+
+    long expiration = lastAccessTime.getTime() + timeout;
+    return expiration < lastAccessTime.getTime() ? null : expiration / bucketMillis;
+  }
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright Terracotta, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ehcache.integrations.shiro;
+
+import org.apache.shiro.session.InvalidSessionException;
+import org.apache.shiro.session.Session;
+import org.ehcache.expiry.ExpiryPolicy;
+
+import java.time.Duration;
+import java.util.Date;
+import java.util.function.Supplier;
+
+/**
+ * Ehcache {@link ExpiryPolicy} expiring cached Shiro {@link Session}s when they time out.
+ * <P>
+ * Each session expires {@link Session#getTimeout() timeout} milliseconds after its
+ * {@link Session#getLastAccessTime() last access time}, plus an optional grace period; sessions with a negative
+ * timeout never expire. The expiry is recomputed every time the session is written to the cache, which Shiro does
+ * when it touches the session, and is left unchanged on cache reads. Values that are not sessions never expire.
+ * </P>
+ * <P>
+ * Sessions expired by the cache are dropped without going through Shiro's session validation, so no
+ * {@code SessionListener.onExpiration} notification is sent for them, and they are not kept around when
+ * {@code deleteInvalidSessions} is disabled. Use a grace period longer than the session validation interval if
+ * those matter. To use it on the session cache:
+ * </P>
+ * <pre>
+ * &lt;expiry&gt;
+ *   &lt;class&gt;org.ehcache.integrations.shiro.SessionExpiryPolicy&lt;/class&gt;
+ * &lt;/expiry&gt;
+ * </pre>
+ */
+public class SessionExpiryPolicy implements ExpiryPolicy<Object, Object> {
+
+  private final long gracePeriod;
+
+  /**
+   * Creates a policy expiring sessions as soon as they time out.
+   */
+  public SessionExpiryPolicy() {
+    this(Duration.ZERO);
+  }
+
+  /**
+   * Creates a policy expiring sessions the given grace period after they time out.
+   *
+   * @param gracePeriod the time sessions are kept after timing out
+   */
+  public SessionExpiryPolicy(Duration gracePeriod) {
+    if (gracePeriod == null || gracePeriod.isNegative()) {
+      throw new IllegalArgumentException("Grace period must be a positive duration.");
+    }
+    this.gracePeriod = gracePeriod.toMillis();
+  }
+
+  public Duration getExpiryForCreation(Object key, Object value) {
+    return expiryFor(value);
+  }
+
+  public Duration getExpiryForAccess(Object key, Supplier<?> value) {
+    return null;
+  }
+
+  public Duration getExpiryForUpdate(Object key, Supplier<?> oldValue, Object newValue) {
+    return expiryFor(newValue);
+  }
+
+  private Duration expiryFor(Object value) {
+    long timeout;
+    Date lastAccessTime;
+    if (value instanceof StoredSession) {
+      StoredSession session = (StoredSession) value;
+      timeout = session.getTimeout();
+      lastAccessTime = session.getLastAccessTime();
+    } else if (value instanceof Session) {
+      Session session = (Session) value;
+      try {
+        timeout = session.getTimeout();
+      } catch (InvalidSessionException e) {
+        return INFINITE;
+      }
+      lastAccessTime = session.getLastAccessTime();
+    } else {
+      return INFINITE;
+    }
+    if (timeout < 0) {
+      return INFINITE;
+    }
+
+    long now = System.currentTimeMillis();
+    long lastAccess = lastAccessTime == null ? now : lastAccessTime.getTime();
+    long expiration = lastAccess + timeout + gracePeriod;
+    if (expiration < lastAccess) {
+      return INFINITE;
+    }
+    long remaining = expiration - now;
+    return remaining > 0 ? Duration.ofMillis(remaining) : Duration.ZERO;
+  }
+}
@@ -0,0 +1,188 @@
+/**
+ * Copyright Terracotta, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ehcache.integrations.shiro;
+
+import org.ehcache.impl.serialization.CompactJavaSerializer;
+import org.ehcache.spi.persistence.StateRepository;
+import org.ehcache.spi.serialization.Serializer;
+import org.ehcache.spi.serialization.SerializerException;
+import org.ehcache.spi.serialization.StatefulSerializer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Ehcache {@link Serializer} for session ids.
+ * <P>
+ * Canonical lower case UUID strings, as generated by Shiro's {@code JavaUuidSessionIdGenerator}, are stored as a tag
+ * byte followed by the two {@code long}s of the UUID: 17 bytes instead of the 36 characters of the string. Other
+ * strings are stored as UTF-8 and any other key type goes through Ehcache's {@link CompactJavaSerializer}, so this
+ * serializer can be used for the {@code java.lang.Object} keys of the {@code shiro-activeSessionCache}:
+ * </P>
+ * <pre>
+ * &lt;key-type serializer="org.ehcache.integrations.shiro.SessionIdSerializer"&gt;java.lang.Object&lt;/key-type&gt;
+ * </pre>
+ */
+public class SessionIdSerializer implements StatefulSerializer<Object> {
+
+  private static final byte JAVA_SERIALIZED = 0;
+  private static final byte UUID = 1;
+  private static final byte STRING = 2;
+
+  private static final int UUID_LENGTH = 36;
+
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  private final CompactJavaSerializer<Object> fallback;
+
+  private final CompactObjectCodec codec;
+
+  /**
+   * Creates a serializer resolving Java serialized classes with the given {@code ClassLoader}.
+   *
+   * @param classLoader the class loader to use
+   */
+  public SessionIdSerializer(ClassLoader classLoader) {
+    this.fallback = new CompactJavaSerializer<Object>(classLoader);
+    this.codec = new CompactObjectCodec(fallback);
+  }
+
+  public void init(StateRepository stateRepository) {
+    fallback.init(stateRepository);
+  }
+
+  public ByteBuffer serialize(Object object) throws SerializerException {
+    if (object instanceof String) {
+      String string = (String) object;
+      if (isCanonicalUuid(string)) {
+        ByteBuffer buffer = ByteBuffer.allocate(17);
+        buffer.put(UUID).putLong(parseHex(string, 0, 8, 9, 13, 14, 18)).putLong(parseHex(string, 19, 23, 24, UUID_LENGTH, 0, 0));
+        buffer.flip();
+        return buffer;
+      }
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+    DataOutputStream out = new DataOutputStream(bytes);
+    try {
+      if (object instanceof String) {
+        out.writeByte(STRING);
+        CompactObjectCodec.writeString(out, (String) object);
+      } else {
+        out.writeByte(JAVA_SERIALIZED);
+        codec.writeSerialized(out, object);
+      }
+      out.flush();
+    } catch (IOException e) {
+      throw new SerializerException(e);
+    }
+    return ByteBuffer.wrap(bytes.toByteArray());
+  }
+
+  public Object read(ByteBuffer binary) throws ClassNotFoundException, SerializerException {
+    try {
+      byte tag = binary.get();
+      switch (tag) {
+        case UUID:
+          return toUuidString(binary.getLong(), binary.getLong());
+        case STRING:
+          return CompactObjectCodec.readString(binary);
+        case JAVA_SERIALIZED:
+          return codec.readSerialized(binary);
+        default:
+          throw new SerializerException("Unknown session id serialization tag " + tag);
+      }
+    } catch (BufferUnderflowException e) {
+      throw new SerializerException(e);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   * <P>
+   * UUID keys are compared on their two {@code long}s, without decoding the stored key.
+   * </P>
+   */
+  public boolean equals(Object object, ByteBuffer binary) throws ClassNotFoundException, SerializerException {
+    if (object instanceof String && binary.remaining() == 17 && binary.get(binary.position()) == UUID) {
+      String string = (String) object;
+      int position = binary.position();
+      return isCanonicalUuid(string)
+             && binary.getLong(position + 1) == parseHex(string, 0, 8, 9, 13, 14, 18)
+             && binary.getLong(position + 9) == parseHex(string, 19, 23, 24, UUID_LENGTH, 0, 0);
+    }
+    return object.equals(read(binary));
+  }
+
+  static boolean isCanonicalUuid(String string) {
+    if (string.length() != UUID_LENGTH) {
+      return false;
+    }
+    for (int i = 0; i < UUID_LENGTH; i++) {
+      char c = string.charAt(i);
+      if (i == 8 || i == 13 || i == 18 || i == 23) {
+        if (c != '-') {
+          return false;
+        }
+      } else if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Parses the hexadecimal digits of up to three {@code [start, end)} ranges of a canonical UUID into a {@code long}.
+   */
+  private static long parseHex(String string, int start1, int end1, int start2, int end2, int start3, int end3) {
+    long value = 0;
+    value = parseHex(value, string, start1, end1);
+    value = parseHex(value, string, start2, end2);
+    return parseHex(value, string, start3, end3);
+  }
+
+  private static long parseHex(long value, String string, int start, int end) {
+    for (int i = start; i < end; i++) {
+      value = (value << 4) | Character.digit(string.charAt(i), 16);
+    }
+    return value;
+  }
+
+  private static String toUuidString(long mostSignificantBits, long leastSignificantBits) {
+    char[] chars = new char[UUID_LENGTH];
+    appendHex(chars, 0, mostSignificantBits >>> 32, 8);
+    chars[8] = '-';
+    appendHex(chars, 9, mostSignificantBits >>> 16, 4);
+    chars[13] = '-';
+    appendHex(chars, 14, mostSignificantBits, 4);
+    chars[18] = '-';
+    appendHex(chars, 19, leastSignificantBits >>> 48, 4);
+    chars[23] = '-';
+    appendHex(chars, 24, leastSignificantBits, 12);
+    return new String(chars);
+  }
+
+  private static void appendHex(char[] chars, int offset, long value, int digits) {
+    for (int i = digits - 1; i >= 0; i--) {
+      chars[offset + i] = HEX_DIGITS[(int) (value & 0xF)];
+      value >>>= 4;
+    }
+  }
+}
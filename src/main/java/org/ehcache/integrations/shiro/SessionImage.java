@@ -0,0 +1,450 @@
+/**
+ * Copyright Terracotta, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ehcache.integrations.shiro;
+
+import org.apache.shiro.session.mgt.SimpleSession;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Stored form of a {@link SimpleSession} whose attributes are serialized one by one.
+ * <P>
+ * {@link #toSession()} rebuilds a session whose attributes are only deserialized when first read. When that session is
+ * written back, the serialized form of an attribute is reused if its value was never read, or if its value is of an
+ * immutable type, such as {@code String}, the boxed primitives or enums, and equal to the value it was deserialized
+ * as. Any other attribute is serialized again, since a value that was read may have been changed in place. The image
+ * exposes the few session properties the session expiry policy, index and eviction advisor need as a
+ * {@link StoredSession}.
+ * </P>
+ */
+final class SessionImage implements StoredSession, Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private static final Set<Class<?>> IMMUTABLE_TYPES = new HashSet<Class<?>>(Arrays.<Class<?>>asList(
+          String.class, Boolean.class, Character.class, Byte.class, Short.class, Integer.class, Long.class,
+          Float.class, Double.class, BigInteger.class, BigDecimal.class, UUID.class));
+
+  private final Serializable id;
+  private final Date startTimestamp;
+  private final Date stopTimestamp;
+  private final Date lastAccessTime;
+  private final long timeout;
+  private final boolean expired;
+  private final String host;
+
+  private final LinkedHashMap<Object, byte[]> attributes;
+
+  private SessionImage(SimpleSession session, LinkedHashMap<Object, byte[]> attributes) {
+    this.id = session.getId();
+    this.startTimestamp = session.getStartTimestamp();
+    this.stopTimestamp = session.getStopTimestamp();
+    this.lastAccessTime = session.getLastAccessTime();
+    this.timeout = session.getTimeout();
+    this.expired = session.isExpired();
+    this.host = session.getHost();
+    this.attributes = attributes;
+  }
+
+  /**
+   * Builds the image of the given session, reusing the serialized attributes it was rebuilt with when unchanged.
+   *
+   * @param session the session to store
+   * @return the image of the session
+   */
+  static SessionImage of(SimpleSession session) {
+    Map<Object, Object> sessionAttributes = session.getAttributes();
+    int size = sessionAttributes == null ? 0 : sessionAttributes.size();
+    LinkedHashMap<Object, byte[]> attributes = new LinkedHashMap<Object, byte[]>(size * 4 / 3 + 1);
+
+    if (sessionAttributes instanceof LazyAttributes) {
+      LazyAttributes lazyAttributes = (LazyAttributes) sessionAttributes;
+      synchronized (lazyAttributes) {
+        for (Object key : lazyAttributes.keySet()) {
+          attributes.put(key, serializedAttribute(lazyAttributes, key));
+        }
+      }
+    } else if (sessionAttributes != null) {
+      for (Map.Entry<Object, Object> entry : sessionAttributes.entrySet()) {
+        attributes.put(entry.getKey(), serialize(entry.getValue()));
+      }
+    }
+    return new SessionImage(session, attributes);
+  }
+
+  /**
+   * Rebuilds the session stored in this image, with attributes deserialized when first read.
+   *
+   * @return a new session equal to the stored one
+   */
+  SimpleSession toSession() {
+    SimpleSession session = new SimpleSession();
+    session.setId(id);
+    session.setStartTimestamp(startTimestamp);
+    session.setStopTimestamp(stopTimestamp);
+    session.setLastAccessTime(lastAccessTime);
+    session.setTimeout(timeout);
+    session.setExpired(expired);
+    session.setHost(host);
+    if (!attributes.isEmpty()) {
+      session.setAttributes(new LazyAttributes(attributes));
+    }
+    return session;
+  }
+
+  byte[] attributeBytes(Object key) {
+    return attributes.get(key);
+  }
+
+  /**
+   * Returns the serialized form of an attribute of a session, reusing the stored form of an unchanged attribute of a
+   * rebuilt session instead of deserializing it. The attributes of a rebuilt session must be locked by the caller
+   * while iterating over them.
+   *
+   * @param attributes the attributes of the session
+   * @param key the key of the attribute
+   * @return the serialized attribute
+   * @throws IllegalArgumentException if the attribute cannot be serialized
+   */
+  static byte[] serializedAttribute(Map<Object, Object> attributes, Object key) {
+    if (attributes instanceof LazyAttributes) {
+      byte[] bytes = ((LazyAttributes) attributes).unchangedBytes(key);
+      if (bytes != null) {
+        return bytes;
+      }
+    }
+    return serialize(attributes.get(key));
+  }
+
+  public Date getLastAccessTime() {
+    return lastAccessTime;
+  }
+
+  public long getTimeout() {
+    return timeout;
+  }
+
+  public Collection<Object> getAttributeKeys() {
+    return Collections.unmodifiableSet(attributes.keySet());
+  }
+
+  public boolean isValid() {
+    return stopTimestamp == null && !expired;
+  }
+
+  /**
+   * Compares the stored content of both images, so that conditional cache operations match an image read back from a
+   * serializing tier.
+   */
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof SessionImage)) {
+      return false;
+    }
+    SessionImage other = (SessionImage) obj;
+    if (timeout != other.timeout || expired != other.expired || !Objects.equals(id, other.id)
+            || !Objects.equals(startTimestamp, other.startTimestamp)
+            || !Objects.equals(stopTimestamp, other.stopTimestamp)
+            || !Objects.equals(lastAccessTime, other.lastAccessTime) || !Objects.equals(host, other.host)
+            || attributes.size() != other.attributes.size()) {
+      return false;
+    }
+    for (Map.Entry<Object, byte[]> entry : attributes.entrySet()) {
+      if (!Arrays.equals(entry.getValue(), other.attributes.get(entry.getKey()))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(id, lastAccessTime, attributes.keySet());
+  }
+
+  /**
+   * Returns whether the given attribute value cannot change in place, so that equal values have the same serialized
+   * form.
+   */
+  private static boolean isImmutable(Object value) {
+    return value != null && (IMMUTABLE_TYPES.contains(value.getClass()) || value instanceof Enum);
+  }
+
+  private static byte[] serialize(Object value) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+    try {
+      ObjectOutputStream out = new ObjectOutputStream(bytes);
+      out.writeObject(value);
+      out.close();
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Session attribute cannot be serialized: " + value, e);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static Object deserialize(byte[] bytes) {
+    try {
+      ObjectInputStream in = new ContextObjectInputStream(new ByteArrayInputStream(bytes));
+      try {
+        return in.readObject();
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Session attribute cannot be deserialized", e);
+    } catch (ClassNotFoundException e) {
+      throw new IllegalStateException("Session attribute cannot be deserialized", e);
+    }
+  }
+
+  /**
+   * Serialized form of an attribute, in place of its value until the value is first read.
+   */
+  private static final class Stored {
+
+    private final byte[] bytes;
+
+    private Object value;
+
+    Stored(byte[] bytes) {
+      this.bytes = bytes;
+    }
+  }
+
+  /**
+   * Attributes of a session rebuilt from an image, deserialized when first read.
+   * <P>
+   * The stored form an immutable value was deserialized from is remembered, so that writing back an equal value reuses
+   * it. All the operations are synchronized on the map, so that concurrent readers of a session can safely deserialize
+   * its attributes; its views, like those of {@code Collections.synchronizedMap}, must be iterated while holding that
+   * lock. It is serialized as a plain map.
+   * </P>
+   */
+  private static final class LazyAttributes extends AbstractMap<Object, Object> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final LinkedHashMap<Object, Object> values;
+
+    private final Map<Object, Stored> origins = new HashMap<Object, Stored>();
+
+    LazyAttributes(Map<Object, byte[]> attributes) {
+      values = new LinkedHashMap<Object, Object>(attributes.size() * 4 / 3 + 1);
+      for (Map.Entry<Object, byte[]> entry : attributes.entrySet()) {
+        values.put(entry.getKey(), new Stored(entry.getValue()));
+      }
+    }
+
+    /**
+     * Returns the serialized form of the attribute if it is known to be up to date, {@code null} otherwise.
+     */
+    synchronized byte[] unchangedBytes(Object key) {
+      Object value = values.get(key);
+      if (value instanceof Stored) {
+        return ((Stored) value).bytes;
+      }
+      Stored origin = origins.get(key);
+      return origin != null && isImmutable(value) && value.equals(origin.value) ? origin.bytes : null;
+    }
+
+    @Override
+    public synchronized int size() {
+      return values.size();
+    }
+
+    @Override
+    public synchronized boolean containsKey(Object key) {
+      return values.containsKey(key);
+    }
+
+    @Override
+    public synchronized Object get(Object key) {
+      Object value = values.get(key);
+      if (value instanceof Stored) {
+        value = load(key, (Stored) value);
+        values.put(key, value);
+      }
+      return value;
+    }
+
+    @Override
+    public synchronized Object put(Object key, Object value) {
+      Object previous = get(key);
+      values.put(key, value);
+      return previous;
+    }
+
+    @Override
+    public synchronized Object remove(Object key) {
+      Object previous = get(key);
+      values.remove(key);
+      return previous;
+    }
+
+    @Override
+    public synchronized void clear() {
+      values.clear();
+    }
+
+    @Override
+    public Set<Object> keySet() {
+      return values.keySet();
+    }
+
+    @Override
+    public Set<Map.Entry<Object, Object>> entrySet() {
+      return new AbstractSet<Map.Entry<Object, Object>>() {
+        @Override
+        public int size() {
+          return LazyAttributes.this.size();
+        }
+
+        @Override
+        public Iterator<Map.Entry<Object, Object>> iterator() {
+          final Iterator<Map.Entry<Object, Object>> iterator = values.entrySet().iterator();
+          return new Iterator<Map.Entry<Object, Object>>() {
+            public boolean hasNext() {
+              return iterator.hasNext();
+            }
+
+            public Map.Entry<Object, Object> next() {
+              return new LazyEntry(iterator.next());
+            }
+
+            public void remove() {
+              iterator.remove();
+            }
+          };
+        }
+      };
+    }
+
+    private Object load(Object key, Stored stored) {
+      Object value = deserialize(stored.bytes);
+      if (isImmutable(value)) {
+        stored.value = value;
+        origins.put(key, stored);
+      }
+      return value;
+    }
+
+    private Object writeReplace() {
+      synchronized (this) {
+        return new LinkedHashMap<Object, Object>(this);
+      }
+    }
+
+    /**
+     * Entry of the attributes, deserializing its value when first read.
+     */
+    private final class LazyEntry implements Map.Entry<Object, Object> {
+
+      private final Map.Entry<Object, Object> entry;
+
+      LazyEntry(Map.Entry<Object, Object> entry) {
+        this.entry = entry;
+      }
+
+      public Object getKey() {
+        return entry.getKey();
+      }
+
+      public Object getValue() {
+        synchronized (LazyAttributes.this) {
+          Object value = entry.getValue();
+          if (value instanceof Stored) {
+            value = load(entry.getKey(), (Stored) value);
+            entry.setValue(value);
+          }
+          return value;
+        }
+      }
+
+      public Object setValue(Object value) {
+        synchronized (LazyAttributes.this) {
+          Object previous = getValue();
+          entry.setValue(value);
+          return previous;
+        }
+      }
+
+      @Override
+      public boolean equals(Object obj) {
+        if (!(obj instanceof Map.Entry)) {
+          return false;
+        }
+        Map.Entry<?, ?> other = (Map.Entry<?, ?>) obj;
+        return Objects.equals(getKey(), other.getKey()) && Objects.equals(getValue(), other.getValue());
+      }
+
+      @Override
+      public int hashCode() {
+        return Objects.hashCode(getKey()) ^ Objects.hashCode(getValue());
+      }
+    }
+  }
+
+  /**
+   * Resolves classes with the thread context class loader first, as session attributes are usually application
+   * classes.
+   */
+  private static class ContextObjectInputStream extends ObjectInputStream {
+
+    ContextObjectInputStream(InputStream in) throws IOException {
+      super(in);
+    }
+
+    @Override
+    protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+      ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+      if (classLoader != null) {
+        try {
+          return Class.forName(desc.getName(), false, classLoader);
+        } catch (ClassNotFoundException e) {
+          // fall back to the default resolution
+        }
+      }
+      return super.resolveClass(desc);
+    }
+  }
+}
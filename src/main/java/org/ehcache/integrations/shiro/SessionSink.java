@@ -0,0 +1,51 @@
+/**
+ * Copyright Terracotta, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ehcache.integrations.shiro;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Durable store to which the changes of a session cache are written behind, in batches.
+ * <P>
+ * Implementations are called from the write-behind threads of Ehcache, never from the threads using the cache.
+ * Within a batch, repeated changes to the same session id are coalesced into the latest one. Sessions that expire
+ * from the cache are deleted, in order with their pending writes, while evicted sessions are kept. A call throwing an exception is retried a couple of times, then
+ * the failure is logged as an error and the batch is dropped, so implementations should be idempotent.
+ * </P>
+ *
+ * @see SessionSinkWriter
+ * @see EhcacheShiroManager#setSessionSink(SessionSink)
+ */
+public interface SessionSink {
+
+  /**
+   * Stores the given sessions, replacing any session stored with the same id.
+   *
+   * @param sessions the sessions to store, keyed by session id
+   * @throws Exception if the sessions could not be stored
+   */
+  void storeAll(Map<?, ?> sessions) throws Exception;
+
+  /**
+   * Deletes the sessions with the given ids, ignoring the ids that are not stored.
+   *
+   * @param sessionIds the ids of the sessions to delete
+   * @throws Exception if the sessions could not be deleted
+   */
+  void deleteAll(Collection<?> sessionIds) throws Exception;
+}
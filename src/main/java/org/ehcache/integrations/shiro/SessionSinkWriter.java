@@ -0,0 +1,171 @@
+/**
+ * Copyright Terracotta, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ehcache.integrations.shiro;
+
+import org.ehcache.Cache;
+import org.ehcache.event.CacheEvent;
+import org.ehcache.event.CacheEventListener;
+import org.ehcache.event.EventType;
+import org.ehcache.spi.loaderwriter.CacheLoaderWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link CacheLoaderWriter} writing the changes of a cache to a {@link SessionSink}.
+ * <P>
+ * It is meant to be configured with a batched, coalescing write-behind so that the threads using the cache only
+ * enqueue their changes. Nothing is loaded from the sink: the cache remains the reference for active sessions, and
+ * misses return {@code null} without any I/O. Sessions stored as images by
+ * {@link EhcacheShiro#setDeltaStorage(boolean) delta storage} are handed to the sink as sessions.
+ * </P>
+ * <P>
+ * Expired sessions never go through the writer, so it also listens to the {@link #EVENT_TYPES expiry events} of the
+ * cache, to be registered asynchronously, and removes each expired session from the cache again: the removal is
+ * queued behind the pending writes of that session and deletes it from the sink in order, rather than racing them.
+ * Evicted sessions are still valid and stay in the sink, which is the point of keeping them there. A sink call
+ * failing is retried {@value #ATTEMPTS} times in all, with a growing delay, before the failure is logged as an
+ * error and rethrown: the sink then stays out of date for these sessions until they are written again.
+ * </P>
+ */
+public class SessionSinkWriter implements CacheLoaderWriter<Object, Object>, CacheEventListener<Object, Object> {
+
+  static final int ATTEMPTS = 3;
+
+  static final long RETRY_DELAY_MILLIS = 100L;
+
+  /**
+   * The cache events this writer should be registered for.
+   */
+  public static final EnumSet<EventType> EVENT_TYPES = EnumSet.of(EventType.EXPIRED);
+
+  private static final Logger log = LoggerFactory.getLogger(SessionSinkWriter.class);
+
+  private final SessionSink sink;
+
+  private final long retryDelayMillis;
+
+  public SessionSinkWriter(SessionSink sink) {
+    this(sink, RETRY_DELAY_MILLIS);
+  }
+
+  SessionSinkWriter(SessionSink sink, long retryDelayMillis) {
+    if (sink == null) {
+      throw new IllegalArgumentException("SessionSink argument cannot be null.");
+    }
+    this.sink = sink;
+    this.retryDelayMillis = retryDelayMillis;
+  }
+
+  public Object load(Object key) {
+    return null;
+  }
+
+  public Map<Object, Object> loadAll(Iterable<?> keys) {
+    return Collections.emptyMap();
+  }
+
+  public void write(Object key, Object value) throws Exception {
+    store(Collections.singletonMap(key, toSession(value)));
+  }
+
+  public void writeAll(Iterable<? extends Map.Entry<?, ?>> entries) throws Exception {
+    Map<Object, Object> sessions = new LinkedHashMap<Object, Object>();
+    for (Map.Entry<?, ?> entry : entries) {
+      sessions.put(entry.getKey(), toSession(entry.getValue()));
+    }
+    if (!sessions.isEmpty()) {
+      store(sessions);
+    }
+  }
+
+  public void delete(Object key) throws Exception {
+    delete(Collections.singleton(key));
+  }
+
+  public void deleteAll(Iterable<?> keys) throws Exception {
+    List<Object> sessionIds = new ArrayList<Object>();
+    for (Object key : keys) {
+      sessionIds.add(key);
+    }
+    if (!sessionIds.isEmpty()) {
+      delete(sessionIds);
+    }
+  }
+
+  /**
+   * Queues the deletion of the expired session from the sink through the cache's write-behind.
+   * <P>
+   * Removing the already expired key is a no-op for the cache but still goes through its writer, after any write of
+   * the session still queued. Session ids are never reused, so the removal cannot hit a newer session.
+   * </P>
+   */
+  @SuppressWarnings("deprecation")
+  public void onEvent(CacheEvent<? extends Object, ? extends Object> event) {
+    if (EVENT_TYPES.contains(event.getType())) {
+      @SuppressWarnings("unchecked")
+      Cache<Object, Object> cache = (Cache<Object, Object>) event.getSource();
+      cache.remove(event.getKey());
+    }
+  }
+
+  private void store(final Map<Object, Object> sessions) throws Exception {
+    withRetries("store", sessions.size(), () -> sink.storeAll(sessions));
+  }
+
+  private void delete(final Collection<Object> sessionIds) throws Exception {
+    withRetries("delete", sessionIds.size(), () -> sink.deleteAll(sessionIds));
+  }
+
+  private void withRetries(String action, int count, SinkCall call) throws Exception {
+    for (int attempt = 1; ; attempt++) {
+      try {
+        call.run();
+        return;
+      } catch (Exception e) {
+        if (attempt >= ATTEMPTS) {
+          log.error("Could not " + action + " " + count + " sessions in the session sink after " + ATTEMPTS
+                  + " attempts, the sink is out of date for them", e);
+          throw e;
+        }
+        log.warn("Could not {} {} sessions in the session sink, retrying: {}", action, count, e.toString());
+        try {
+          Thread.sleep(retryDelayMillis * attempt);
+        } catch (InterruptedException interrupted) {
+          Thread.currentThread().interrupt();
+          throw e;
+        }
+      }
+    }
+  }
+
+  private static Object toSession(Object value) {
+    return value instanceof SessionImage ? ((SessionImage) value).toSession() : value;
+  }
+
+  private interface SinkCall {
+
+    void run() throws Exception;
+  }
+}
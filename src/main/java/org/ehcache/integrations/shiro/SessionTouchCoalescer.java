@@ -0,0 +1,310 @@
+/**
+ * Copyright Terracotta, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ehcache.integrations.shiro;
+
+import org.apache.shiro.session.mgt.SimpleSession;
+import org.ehcache.event.CacheEvent;
+import org.ehcache.event.CacheEventListener;
+import org.ehcache.event.EventFiring;
+import org.ehcache.event.EventOrdering;
+import org.ehcache.event.EventType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiPredicate;
+import java.util.function.Supplier;
+
+/**
+ * Absorbs the writes of {@link SimpleSession}s that only changed their last access time, and flushes them to an
+ * {@link org.ehcache.Cache} periodically.
+ * <P>
+ * The state of every session field but the last access time is kept for each session written to the cache, with a
+ * SHA-256 digest of the serialized attributes, in iteration order, and their count, so that values changed in place
+ * are noticed without keeping a copy of the attributes. The attributes of sessions rebuilt by
+ * {@link EhcacheShiro#setDeltaStorage(boolean) delta storage} are digested one at a time, using the stored form of
+ * those never read, so that a touch does not deserialize them. A write of a session in the same state
+ * is a touch: the session is kept in memory as pending instead of being written, and reads return it in place of the
+ * cached copy. Pending sessions are written to the cache on a single daemon thread every flush interval, or as soon
+ * as a write changes anything else. Sessions whose attributes cannot be serialized are always written.
+ * </P>
+ * <P>
+ * Flushing only replaces sessions still in the cache, and the pending session of a key is dropped when the key is
+ * removed, expires or is evicted, so a flush never brings back a session the cache let go. The owner serializes the
+ * operations on a key with {@link #lockFor(Object)} and is responsible for calling {@link #reset()} when it clears the
+ * cache.
+ * </P>
+ */
+class SessionTouchCoalescer<K, V> implements CacheEventListener<K, V> {
+
+  private static final int LOCK_STRIPES = 256;
+
+  private static final Logger log = LoggerFactory.getLogger(SessionTouchCoalescer.class);
+
+  private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+  private static final EnumSet<EventType> EVENT_TYPES = EnumSet.of(EventType.REMOVED, EventType.EXPIRED,
+          EventType.EVICTED);
+
+  private final org.ehcache.Cache<K, V> cache;
+
+  private final BiPredicate<K, V> writer;
+
+  private final long flushIntervalMillis;
+
+  private final Object[] locks = new Object[LOCK_STRIPES];
+
+  private final ConcurrentMap<K, V> pending = new ConcurrentHashMap<K, V>();
+
+  private final ConcurrentMap<K, WrittenState> states = new ConcurrentHashMap<K, WrittenState>();
+
+  private ScheduledExecutorService scheduler;
+
+  SessionTouchCoalescer(org.ehcache.Cache<K, V> cache, BiPredicate<K, V> writer, long flushIntervalMillis) {
+    if (flushIntervalMillis <= 0) {
+      throw new IllegalArgumentException("Flush interval must be positive.");
+    }
+    this.cache = cache;
+    this.writer = writer;
+    this.flushIntervalMillis = flushIntervalMillis;
+    for (int i = 0; i < LOCK_STRIPES; i++) {
+      locks[i] = new Object();
+    }
+  }
+
+  /**
+   * Registers this coalescer on the cache and starts flushing the pending sessions periodically.
+   */
+  synchronized void register() {
+    cache.getRuntimeConfiguration().registerCacheEventListener(this, EventOrdering.UNORDERED,
+            EventFiring.SYNCHRONOUS, EVENT_TYPES);
+
+    scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "ehcache-shiro-touch-flush-" + THREAD_COUNT.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    scheduler.scheduleWithFixedDelay(() -> {
+      try {
+        flush();
+      } catch (RuntimeException e) {
+        log.warn("Flushing touched sessions to cache [" + cache + "] failed", e);
+      }
+    }, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stops the periodic flush, flushes the pending sessions and deregisters this coalescer.
+   */
+  synchronized void deregister() {
+    scheduler.shutdown();
+    flush();
+    cache.getRuntimeConfiguration().deregisterCacheEventListener(this);
+  }
+
+  void reset() {
+    pending.clear();
+    states.clear();
+  }
+
+  Object lockFor(K key) {
+    int hash = key.hashCode();
+    return locks[(hash ^ (hash >>> 16)) & (LOCK_STRIPES - 1)];
+  }
+
+  /**
+   * Writes the given value with the given writer, unless it is a session that only touches the last written one.
+   * <P>
+   * The state of the session is computed once, under the key's lock: it is compared with the last written state and
+   * kept as such if the session is written.
+   * </P>
+   *
+   * @return {@code null} if the session is now pending, the result of the writer otherwise
+   */
+  V put(K key, V value, Supplier<V> writer) {
+    synchronized (lockFor(key)) {
+      WrittenState state = value instanceof SimpleSession ? WrittenState.of((SimpleSession) value) : null;
+      if (state != null && state.equals(states.get(key))) {
+        pending.put(key, value);
+        return null;
+      }
+      V previousValue = writer.get();
+      pending.remove(key);
+      if (state == null) {
+        states.remove(key);
+      } else {
+        states.put(key, state);
+      }
+      return previousValue;
+    }
+  }
+
+  /**
+   * Forgets the given key, about to be removed from the cache. Must hold the key's lock.
+   */
+  void removed(K key) {
+    pending.remove(key);
+    states.remove(key);
+  }
+
+  V pending(K key) {
+    return pending.get(key);
+  }
+
+  int pendingCount() {
+    return pending.size();
+  }
+
+  /**
+   * Writes the pending sessions still present in the cache.
+   */
+  void flush() {
+    for (K key : pending.keySet()) {
+      synchronized (lockFor(key)) {
+        V value = pending.remove(key);
+        if (value != null && !writer.test(key, value)) {
+          states.remove(key);
+        }
+      }
+    }
+  }
+
+  /**
+   * Forgets the key removed, expired or evicted from the cache, along with its pending session.
+   */
+  public void onEvent(CacheEvent<? extends K, ? extends V> event) {
+    pending.remove(event.getKey());
+    states.remove(event.getKey());
+  }
+
+  /**
+   * State of a written session, but its last access time.
+   */
+  private static final class WrittenState {
+
+    private final Long startTimestamp;
+    private final Long stopTimestamp;
+    private final long timeout;
+    private final boolean expired;
+    private final String host;
+    private final int attributeCount;
+    private final byte[] attributesDigest;
+
+    private WrittenState(SimpleSession session, int attributeCount, byte[] attributesDigest) {
+      this.startTimestamp = time(session.getStartTimestamp());
+      this.stopTimestamp = time(session.getStopTimestamp());
+      this.timeout = session.getTimeout();
+      this.expired = session.isExpired();
+      this.host = session.getHost();
+      this.attributeCount = attributeCount;
+      this.attributesDigest = attributesDigest;
+    }
+
+    /**
+     * Returns the state of the given session, or {@code null} if its attributes cannot be serialized.
+     */
+    static WrittenState of(SimpleSession session) {
+      Map<Object, Object> attributes = session.getAttributes();
+      MessageDigest digest = newDigest();
+      int count = 0;
+      if (attributes != null) {
+        try {
+          synchronized (attributes) {
+            for (Object key : attributes.keySet()) {
+              update(digest, keyBytes(key));
+              update(digest, SessionImage.serializedAttribute(attributes, key));
+              count++;
+            }
+          }
+        } catch (IllegalArgumentException e) {
+          return null;
+        }
+      }
+      return new WrittenState(session, count, digest.digest());
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof WrittenState)) {
+        return false;
+      }
+      WrittenState other = (WrittenState) obj;
+      return timeout == other.timeout && expired == other.expired && attributeCount == other.attributeCount
+              && Objects.equals(startTimestamp, other.startTimestamp)
+              && Objects.equals(stopTimestamp, other.stopTimestamp)
+              && Objects.equals(host, other.host)
+              && MessageDigest.isEqual(attributesDigest, other.attributesDigest);
+    }
+
+    @Override
+    public int hashCode() {
+      return Arrays.hashCode(attributesDigest);
+    }
+
+    private static Long time(Date date) {
+      return date == null ? null : date.getTime();
+    }
+
+    private static MessageDigest newDigest() {
+      try {
+        return MessageDigest.getInstance("SHA-256");
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    /**
+     * Adds the given bytes to the digest, prefixed by their length so that consecutive values cannot be confused.
+     */
+    private static void update(MessageDigest digest, byte[] bytes) {
+      int length = bytes.length;
+      digest.update((byte) (length >>> 24));
+      digest.update((byte) (length >>> 16));
+      digest.update((byte) (length >>> 8));
+      digest.update((byte) length);
+      digest.update(bytes);
+    }
+
+    /**
+     * Returns the UTF-8 form of a string key, marked so that it cannot be confused with the serialized form of any
+     * other key.
+     */
+    private static byte[] keyBytes(Object key) {
+      if (key instanceof String) {
+        byte[] chars = ((String) key).getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = new byte[chars.length + 1];
+        System.arraycopy(chars, 0, bytes, 1, chars.length);
+        return bytes;
+      }
+      return SessionImage.serializedAttribute(Collections.singletonMap(key, key), key);
+    }
+  }
+}
@@ -0,0 +1,184 @@
+/**
+ * Copyright Terracotta, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ehcache.integrations.shiro;
+
+import org.apache.shiro.session.mgt.SimpleSession;
+import org.ehcache.impl.serialization.CompactJavaSerializer;
+import org.ehcache.spi.persistence.StateRepository;
+import org.ehcache.spi.serialization.Serializer;
+import org.ehcache.spi.serialization.SerializerException;
+import org.ehcache.spi.serialization.StatefulSerializer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Ehcache {@link Serializer} writing Shiro {@link SimpleSession}s field by field.
+ * <P>
+ * Session ids, timestamps, timeout, host, expired flag and attributes are written directly, attribute keys and values
+ * of common types (strings, numbers, booleans, dates) included; only other attribute types, like principal
+ * collections, go through Ehcache's {@link CompactJavaSerializer}. Any other value, including subclasses of
+ * {@code SimpleSession}, is serialized as a whole by the {@code CompactJavaSerializer}, so this serializer can be used
+ * for the {@code java.lang.Object} values of the {@code shiro-activeSessionCache}:
+ * </P>
+ * <pre>
+ * &lt;value-type serializer="org.ehcache.integrations.shiro.SimpleSessionSerializer"&gt;java.lang.Object&lt;/value-type&gt;
+ * </pre>
+ */
+public class SimpleSessionSerializer implements StatefulSerializer<Object> {
+
+  private static final byte JAVA_SERIALIZED = 0;
+  private static final byte SIMPLE_SESSION = 1;
+
+  private static final int START_TIMESTAMP = 1;
+  private static final int STOP_TIMESTAMP = 1 << 1;
+  private static final int LAST_ACCESS_TIME = 1 << 2;
+  private static final int HOST = 1 << 3;
+  private static final int ATTRIBUTES = 1 << 4;
+  private static final int EXPIRED = 1 << 5;
+
+  private final CompactJavaSerializer<Object> fallback;
+
+  private final CompactObjectCodec codec;
+
+  /**
+   * Creates a serializer resolving Java serialized classes with the given {@code ClassLoader}.
+   *
+   * @param classLoader the class loader to use
+   */
+  public SimpleSessionSerializer(ClassLoader classLoader) {
+    this.fallback = new CompactJavaSerializer<Object>(classLoader);
+    this.codec = new CompactObjectCodec(fallback);
+  }
+
+  public void init(StateRepository stateRepository) {
+    fallback.init(stateRepository);
+  }
+
+  public ByteBuffer serialize(Object object) throws SerializerException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+    DataOutputStream out = new DataOutputStream(bytes);
+    try {
+      if (object != null && object.getClass() == SimpleSession.class) {
+        out.writeByte(SIMPLE_SESSION);
+        writeSession(out, (SimpleSession) object);
+      } else {
+        out.writeByte(JAVA_SERIALIZED);
+        codec.writeSerialized(out, object);
+      }
+      out.flush();
+    } catch (IOException e) {
+      throw new SerializerException(e);
+    }
+    return ByteBuffer.wrap(bytes.toByteArray());
+  }
+
+  public Object read(ByteBuffer binary) throws ClassNotFoundException, SerializerException {
+    try {
+      byte tag = binary.get();
+      switch (tag) {
+        case SIMPLE_SESSION:
+          return readSession(binary);
+        case JAVA_SERIALIZED:
+          return codec.readSerialized(binary);
+        default:
+          throw new SerializerException("Unknown session serialization tag " + tag);
+      }
+    } catch (BufferUnderflowException e) {
+      throw new SerializerException(e);
+    } catch (IllegalStateException e) {
+      throw new SerializerException(e);
+    }
+  }
+
+  public boolean equals(Object object, ByteBuffer binary) throws ClassNotFoundException, SerializerException {
+    return object.equals(read(binary));
+  }
+
+  private void writeSession(DataOutputStream out, SimpleSession session) throws IOException {
+    Date startTimestamp = session.getStartTimestamp();
+    Date stopTimestamp = session.getStopTimestamp();
+    Date lastAccessTime = session.getLastAccessTime();
+    String host = session.getHost();
+    Map<Object, Object> attributes = session.getAttributes();
+
+    int flags = 0;
+    flags |= startTimestamp != null ? START_TIMESTAMP : 0;
+    flags |= stopTimestamp != null ? STOP_TIMESTAMP : 0;
+    flags |= lastAccessTime != null ? LAST_ACCESS_TIME : 0;
+    flags |= host != null ? HOST : 0;
+    flags |= attributes != null ? ATTRIBUTES : 0;
+    flags |= session.isExpired() ? EXPIRED : 0;
+    out.writeByte(flags);
+
+    codec.write(out, session.getId());
+    if (startTimestamp != null) {
+      out.writeLong(startTimestamp.getTime());
+    }
+    if (stopTimestamp != null) {
+      out.writeLong(stopTimestamp.getTime());
+    }
+    if (lastAccessTime != null) {
+      out.writeLong(lastAccessTime.getTime());
+    }
+    out.writeLong(session.getTimeout());
+    if (host != null) {
+      CompactObjectCodec.writeString(out, host);
+    }
+    if (attributes != null) {
+      out.writeInt(attributes.size());
+      for (Map.Entry<Object, Object> attribute : attributes.entrySet()) {
+        codec.write(out, attribute.getKey());
+        codec.write(out, attribute.getValue());
+      }
+    }
+  }
+
+  private SimpleSession readSession(ByteBuffer in) throws ClassNotFoundException {
+    int flags = in.get();
+
+    SimpleSession session = new SimpleSession();
+    session.setId((Serializable) codec.read(in));
+    session.setStartTimestamp((flags & START_TIMESTAMP) != 0 ? new Date(in.getLong()) : null);
+    session.setStopTimestamp((flags & STOP_TIMESTAMP) != 0 ? new Date(in.getLong()) : null);
+    session.setLastAccessTime((flags & LAST_ACCESS_TIME) != 0 ? new Date(in.getLong()) : null);
+    session.setTimeout(in.getLong());
+    session.setHost((flags & HOST) != 0 ? CompactObjectCodec.readString(in) : null);
+    session.setExpired((flags & EXPIRED) != 0);
+
+    if ((flags & ATTRIBUTES) != 0) {
+      int size = in.getInt();
+      Map<Object, Object> attributes = new HashMap<Object, Object>(Math.max(16, (int) (size / .75f) + 1));
+      for (int i = 0; i < size; i++) {
+        Object key = codec.read(in);
+        attributes.put(key, codec.read(in));
+      }
+      session.setAttributes(attributes);
+    } else {
+      session.setAttributes(null);
+    }
+
+    return session;
+  }
+}
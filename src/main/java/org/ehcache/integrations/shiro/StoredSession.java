@@ -0,0 +1,39 @@
+/**
+ * Copyright Terracotta, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ehcache.integrations.shiro;
+
+import java.util.Collection;
+import java.util.Date;
+
+/**
+ * Read-only view of a Shiro session held by a cache in a stored form that is not a
+ * {@link org.apache.shiro.session.Session}, like a {@link SessionImage}.
+ * <P>
+ * It exposes what the {@link SessionExpiryPolicy}, the {@link SessionExpiryIndex} and the
+ * {@link AuthenticatedSessionEvictionAdvisor} read from the cached sessions.
+ * </P>
+ */
+interface StoredSession {
+
+  Date getLastAccessTime();
+
+  long getTimeout();
+
+  Collection<Object> getAttributeKeys();
+
+  boolean isValid();
+}
@@ -19,11 +19,16 @@ package org.ehcache.integrations.shiro;
 import org.apache.shiro.ShiroException;
 import org.ehcache.CacheManager;
 import org.ehcache.Status;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+
 public class ArbitraryCacheManagerTest extends BaseEhcacheShiroTest {
 
   private EhcacheShiroManager ehcacheShiroManager;
@@ -81,6 +86,45 @@ public class ArbitraryCacheManagerTest extends BaseEhcacheShiroTest {
     Assert.assertSame(cacheManager, ehcacheShiroManager.getCacheManager());
   }
 
+  @Test
+  public void testEagerInitSkipsTypedCaches() {
+    cacheManager.createCache("declaredCache", CacheConfigurationBuilder.newCacheConfigurationBuilder(
+            Object.class, Object.class, ResourcePoolsBuilder.heap(10)));
+    ehcacheShiroManager.setCacheManager(cacheManager);
+    ehcacheShiroManager.setEagerInit(true);
+    ehcacheShiroManager.setEagerCaches(new LinkedHashSet<String>(Arrays.asList("basicCache", "eagerCache")));
+    ehcacheShiroManager.init();
+
+    Assert.assertNotNull(cacheManager.getCache("eagerCache", Object.class, Object.class));
+    Assert.assertSame(basicCache, cacheManager.getCache("basicCache", Long.class, String.class));
+    Assert.assertSame(ehcacheShiroManager.getCache("declaredCache"), ehcacheShiroManager.getCache("declaredCache"));
+  }
+
+  @Test
+  public void testRecreatedCacheIsNotServedThroughStaleWrapper() throws Exception {
+    ehcacheShiroManager.setCacheManager(cacheManager);
+    ehcacheShiroManager.init();
+
+    org.apache.shiro.cache.Cache<Object, Object> first = ehcacheShiroManager.getCache("someCache");
+    Assert.assertSame(first, ehcacheShiroManager.getCache("someCache"));
+
+    cacheManager.removeCache("someCache");
+    cacheManager.createCache("someCache", CacheConfigurationBuilder.newCacheConfigurationBuilder(
+            Object.class, Object.class, ResourcePoolsBuilder.heap(10)));
+
+    org.apache.shiro.cache.Cache<Object, Object> second = ehcacheShiroManager.getCache("someCache");
+    Assert.assertNotSame(first, second);
+    Assert.assertNull(second.put("key", "value"));
+    Assert.assertEquals("value", cacheManager.getCache("someCache", Object.class, Object.class).get("key"));
+    Assert.assertSame(second, ehcacheShiroManager.getCache("someCache"));
+
+    cacheManager.removeCache("someCache");
+    org.apache.shiro.cache.Cache<Object, Object> third = ehcacheShiroManager.getCache("someCache");
+    Assert.assertNotSame(second, third);
+    Assert.assertNull(third.get("key"));
+    Assert.assertNotNull(cacheManager.getCache("someCache", Object.class, Object.class));
+  }
+
   /**
    * Test showing issues:
    * <p>
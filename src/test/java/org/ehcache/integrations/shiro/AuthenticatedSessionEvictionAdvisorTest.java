@@ -0,0 +1,108 @@
+/**
+ * Copyright Terracotta, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.ehcache.integrations.shiro;
+
+import org.apache.shiro.session.mgt.SimpleSession;
+import org.apache.shiro.subject.SimplePrincipalCollection;
+import org.apache.shiro.subject.support.DefaultSubjectContext;
+import org.ehcache.Cache;
+import org.ehcache.CacheManager;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.CacheManagerBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AuthenticatedSessionEvictionAdvisorTest {
+
+  private final AuthenticatedSessionEvictionAdvisor advisor = new AuthenticatedSessionEvictionAdvisor();
+
+  @Test
+  public void testAuthenticatedSessionsAreKept() {
+    Assert.assertTrue(advisor.adviseAgainstEviction("id", authenticatedSession("id")));
+  }
+
+  @Test
+  public void testAnonymousSessionsAreEvicted() {
+    Assert.assertFalse(advisor.adviseAgainstEviction("id", anonymousSession("id")));
+    SimpleSession session = anonymousSession("id");
+    session.setAttribute("someAttribute", "someValue");
+    Assert.assertFalse(advisor.adviseAgainstEviction("id", session));
+  }
+
+  @Test
+  public void testInvalidSessionsAreEvicted() {
+    SimpleSession stopped = authenticatedSession("stopped");
+    stopped.stop();
+    Assert.assertFalse(advisor.adviseAgainstEviction("stopped", stopped));
+
+    SimpleSession expired = authenticatedSession("expired");
+    expired.setExpired(true);
+    Assert.assertFalse(advisor.adviseAgainstEviction("expired", expired));
+  }
+
+  @Test
+  public void testOtherValuesAreEvicted() {
+    Assert.assertFalse(advisor.adviseAgainstEviction("key", "value"));
+    Assert.assertFalse(advisor.adviseAgainstEviction("key", null));
+  }
+
+  @Test
+  public void testSessionImages() {
+    Assert.assertTrue(advisor.adviseAgainstEviction("id", SessionImage.of(authenticatedSession("id"))));
+    Assert.assertFalse(advisor.adviseAgainstEviction("id", SessionImage.of(anonymousSession("id"))));
+  }
+
+  @Test
+  public void testAnonymousChurnKeepsAuthenticatedSessions() {
+    CacheManager cacheManager = CacheManagerBuilder.newCacheManagerBuilder()
+            .withCache("sessions", CacheConfigurationBuilder.newCacheConfigurationBuilder(
+                    Object.class, Object.class, ResourcePoolsBuilder.heap(100))
+                    .withEvictionAdvisor(advisor))
+            .build(true);
+
+    try {
+      Cache<Object, Object> cache = cacheManager.getCache("sessions", Object.class, Object.class);
+      for (int i = 0; i < 50; i++) {
+        cache.put("user-" + i, authenticatedSession("user-" + i));
+      }
+      for (int i = 0; i < 10000; i++) {
+        cache.put("anonymous-" + i, anonymousSession("anonymous-" + i));
+      }
+
+      for (int i = 0; i < 50; i++) {
+        Assert.assertNotNull(cache.get("user-" + i));
+      }
+    } finally {
+      cacheManager.close();
+    }
+  }
+
+  private static SimpleSession anonymousSession(String id) {
+    SimpleSession session = new SimpleSession("127.0.0.1");
+    session.setId(id);
+    return session;
+  }
+
+  private static SimpleSession authenticatedSession(String id) {
+    SimpleSession session = anonymousSession(id);
+    session.setAttribute(DefaultSubjectContext.PRINCIPALS_SESSION_KEY, new SimplePrincipalCollection(id, "someRealm"));
+    session.setAttribute(DefaultSubjectContext.AUTHENTICATED_SESSION_KEY, Boolean.TRUE);
+    return session;
+  }
+}
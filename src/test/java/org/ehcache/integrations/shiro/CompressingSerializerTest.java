@@ -0,0 +1,152 @@
+/**
+ * Copyright Terracotta, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.ehcache.integrations.shiro;
+
+import org.apache.shiro.session.mgt.SimpleSession;
+import org.ehcache.Cache;
+import org.ehcache.PersistentCacheManager;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.CacheManagerBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.ehcache.config.units.EntryUnit;
+import org.ehcache.config.units.MemoryUnit;
+import org.ehcache.impl.serialization.TransientStateRepository;
+import org.ehcache.spi.serialization.SerializerException;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.UUID;
+
+public class CompressingSerializerTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private CompressedSimpleSessionSerializer serializer;
+
+  @Before
+  public void setUp() {
+    serializer = new CompressedSimpleSessionSerializer(getClass().getClassLoader());
+    serializer.init(new TransientStateRepository());
+  }
+
+  @Test
+  public void testSmallPayloadsAreStoredRaw() throws Exception {
+    SimpleSession session = newSession(1);
+    ByteBuffer serialized = serializer.serialize(session);
+    SimpleSessionSerializer plain = new SimpleSessionSerializer(getClass().getClassLoader());
+    plain.init(new TransientStateRepository());
+
+    Assert.assertEquals(plain.serialize(session).remaining() + 1, serialized.remaining());
+    Assert.assertEquals(0, serialized.get(0));
+    Assert.assertEquals(session.getId(), ((SimpleSession) serializer.read(serialized)).getId());
+  }
+
+  @Test
+  public void testLargePayloadsAreCompressed() throws Exception {
+    SimpleSession session = newSession(100);
+    SimpleSessionSerializer plain = new SimpleSessionSerializer(getClass().getClassLoader());
+    plain.init(new TransientStateRepository());
+
+    ByteBuffer serialized = serializer.serialize(session);
+    Assert.assertEquals(1, serialized.get(0));
+    Assert.assertTrue(serialized.remaining() < plain.serialize(session).remaining() / 2);
+
+    SimpleSession copy = (SimpleSession) serializer.read(serialized);
+    Assert.assertEquals(session.getId(), copy.getId());
+    Assert.assertEquals(session.getAttributes(), copy.getAttributes());
+    Assert.assertTrue(serializer.equals("someString", serializer.serialize("someString")));
+  }
+
+  @Test
+  public void testIncompressiblePayloadsAreStoredRaw() throws Exception {
+    byte[] noise = new byte[4096];
+    new Random(42).nextBytes(noise);
+
+    ByteBuffer serialized = serializer.serialize(noise);
+    Assert.assertEquals(0, serialized.get(0));
+    Assert.assertArrayEquals(noise, (byte[]) serializer.read(serialized));
+  }
+
+  @Test
+  public void testDirectBuffers() throws Exception {
+    SimpleSession session = newSession(100);
+    ByteBuffer serialized = serializer.serialize(session);
+    ByteBuffer direct = ByteBuffer.allocateDirect(serialized.remaining());
+    direct.put(serialized).flip();
+
+    Assert.assertEquals(session.getAttributes(), ((SimpleSession) serializer.read(direct)).getAttributes());
+  }
+
+  @Test(expected = SerializerException.class)
+  public void testUnknownHeader() throws Exception {
+    serializer.read(ByteBuffer.wrap(new byte[] { 42, 0 }));
+  }
+
+  @Test(expected = SerializerException.class)
+  public void testCorruptedPayload() throws Exception {
+    ByteBuffer serialized = serializer.serialize(newSession(100));
+    serialized.put(serialized.limit() - 1, (byte) (serialized.get(serialized.limit() - 1) + 1));
+    serializer.read(serialized);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNegativeThreshold() {
+    new CompressingSerializer<Object>(serializer, -1);
+  }
+
+  @Test
+  public void testDiskTier() throws Exception {
+    PersistentCacheManager cacheManager = CacheManagerBuilder.newCacheManagerBuilder()
+            .with(CacheManagerBuilder.persistence(folder.newFolder()))
+            .withCache("sessions", CacheConfigurationBuilder.newCacheConfigurationBuilder(String.class, Object.class,
+                    ResourcePoolsBuilder.newResourcePoolsBuilder().heap(10, EntryUnit.ENTRIES).disk(10, MemoryUnit.MB))
+                    .withValueSerializer(CompressedSimpleSessionSerializer.class))
+            .build(true);
+
+    try {
+      Cache<String, Object> cache = cacheManager.getCache("sessions", String.class, Object.class);
+      for (int i = 0; i < 100; i++) {
+        SimpleSession session = newSession(i + 1);
+        session.setId("session-" + i);
+        cache.put((String) session.getId(), session);
+      }
+
+      for (int i = 0; i < 100; i++) {
+        SimpleSession session = (SimpleSession) cache.get("session-" + i);
+        Assert.assertEquals(i + 1, session.getAttributes().size());
+      }
+    } finally {
+      cacheManager.close();
+    }
+  }
+
+  private static SimpleSession newSession(int attributeCount) {
+    SimpleSession session = new SimpleSession("127.0.0.1");
+    session.setId(UUID.randomUUID().toString());
+    for (int i = 0; i < attributeCount; i++) {
+      session.setAttribute("attribute-" + i, "value-" + i);
+    }
+    return session;
+  }
+}
@@ -20,8 +20,15 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 public class EhcacheCollectionWrapperTest extends BaseEhcacheShiroTest {
 
@@ -30,7 +37,7 @@ public class EhcacheCollectionWrapperTest extends BaseEhcacheShiroTest {
   @Before
   public void setUp() {
     super.setUp();
-    collection = new EhcacheCollectionWrapper<Long>(new EhcacheShiro(basicCache), basicCache) {
+    collection = new EhcacheCollectionWrapper<Long>(new EhcacheShiro<Long, String>(basicCache), basicCache) {
       @Override
       public Iterator<Long> iterator() {
         return null;
@@ -79,4 +86,59 @@ public class EhcacheCollectionWrapperTest extends BaseEhcacheShiroTest {
     Assert.assertEquals(0, collection.size());
     Assert.assertTrue(collection.isEmpty());
   }
+
+  @Test
+  public void testSingleScanSnapshots() {
+    for (long i = 0; i < 10; i++) {
+      basicCache.put(Long.valueOf(i), "value-" + i);
+    }
+    EhcacheShiro<Long, String> uncountable = new EhcacheShiro<Long, String>(basicCache) {
+      @Override
+      public int size() {
+        throw new AssertionError("Snapshots should not iterate the cache to compute its size");
+      }
+    };
+    AtomicInteger scans = new AtomicInteger();
+    Collection<String> values = new EhcacheCollectionWrapper<String>(uncountable, basicCache) {
+      @Override
+      public Iterator<String> iterator() {
+        scans.incrementAndGet();
+        return uncountable.values().iterator();
+      }
+    };
+    Set<Long> keys = new EhcacheSetWrapper<Long>(uncountable, basicCache) {
+      @Override
+      public Iterator<Long> iterator() {
+        scans.incrementAndGet();
+        return uncountable.keys().iterator();
+      }
+    };
+
+    Assert.assertEquals(10, values.toArray().length);
+    Assert.assertEquals(10, values.toArray(new String[0]).length);
+    Assert.assertEquals(10, new ArrayList<String>(values).size());
+    Assert.assertEquals(10, values.stream().collect(Collectors.toList()).size());
+    Assert.assertEquals(4, scans.get());
+
+    Set<Long> expectedKeys = new HashSet<Long>();
+    for (long i = 0; i < 10; i++) {
+      expectedKeys.add(Long.valueOf(i));
+    }
+    scans.set(0);
+    Assert.assertEquals(expectedKeys, new HashSet<Long>(Arrays.asList(keys.toArray(new Long[0]))));
+    List<Long> keyList = new ArrayList<Long>(keys);
+    Assert.assertEquals(expectedKeys, new HashSet<Long>(keyList));
+    Assert.assertEquals(2, scans.get());
+  }
+
+  @Test
+  public void testToArrayIntoLargerArray() {
+    basicCache.put(Long.valueOf(1), "someValue");
+    Collection<String> values = new EhcacheShiro<Long, String>(basicCache).values();
+
+    String[] array = { "a", "b", "c" };
+    Assert.assertSame(array, values.toArray(array));
+    Assert.assertEquals("someValue", array[0]);
+    Assert.assertNull(array[1]);
+  }
 }
@@ -0,0 +1,96 @@
+/**
+ * Copyright Terracotta, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ehcache.integrations.shiro;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+public class EhcacheCursorTest extends BaseEhcacheShiroTest {
+
+  private EhcacheShiro<Long, String> shiroCache;
+
+  @Before
+  public void setUp() {
+    super.setUp();
+    shiroCache = new EhcacheShiro<Long, String>(basicCache);
+    for (long i = 0; i < 25; i++) {
+      shiroCache.put(Long.valueOf(i), "value-" + i);
+    }
+  }
+
+  @Test
+  public void testPages() {
+    EhcacheCursor<Long, String> cursor = shiroCache.cursor();
+    Set<Long> seen = new HashSet<Long>();
+
+    for (int expected : new int[] { 10, 10, 5 }) {
+      Assert.assertTrue(cursor.hasNext());
+      Map<Long, String> page = cursor.nextPage(10);
+      Assert.assertEquals(expected, page.size());
+      for (Map.Entry<Long, String> entry : page.entrySet()) {
+        Assert.assertEquals("value-" + entry.getKey(), entry.getValue());
+        Assert.assertTrue(seen.add(entry.getKey()));
+      }
+    }
+
+    Assert.assertFalse(cursor.hasNext());
+    Assert.assertTrue(cursor.nextPage(10).isEmpty());
+    Assert.assertEquals(25, cursor.getPosition());
+    Assert.assertEquals(25, seen.size());
+  }
+
+  @Test
+  public void testConcurrentModifications() {
+    EhcacheCursor<Long, String> cursor = shiroCache.cursor();
+    Set<Long> seen = new HashSet<Long>(cursor.nextPage(5).keySet());
+
+    for (long i = 0; i < 25; i += 2) {
+      shiroCache.remove(Long.valueOf(i));
+    }
+    for (long i = 100; i < 110; i++) {
+      shiroCache.put(Long.valueOf(i), "value-" + i);
+    }
+
+    while (cursor.hasNext()) {
+      for (Long key : cursor.nextPage(7).keySet()) {
+        Assert.assertTrue(seen.add(key));
+      }
+    }
+    for (long i = 1; i < 25; i += 2) {
+      Assert.assertTrue(seen.contains(Long.valueOf(i)));
+    }
+  }
+
+  @Test
+  public void testEmptyCache() {
+    shiroCache.clear();
+    EhcacheCursor<Long, String> cursor = shiroCache.cursor();
+
+    Assert.assertFalse(cursor.hasNext());
+    Assert.assertTrue(cursor.nextPage(10).isEmpty());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidPageSize() {
+    shiroCache.cursor().nextPage(0);
+  }
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright Terracotta, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ehcache.integrations.shiro;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class EhcacheLoadCoalescerTest {
+
+  @Test
+  public void testOwnerClaimsAgain() {
+    EhcacheLoadCoalescer<String> coalescer = new EhcacheLoadCoalescer<String>(1000);
+
+    Assert.assertTrue(coalescer.claimOrAwait("key"));
+    Assert.assertTrue(coalescer.claimOrAwait("key"));
+    Assert.assertEquals(1, coalescer.size());
+
+    coalescer.complete("key");
+    Assert.assertEquals(0, coalescer.size());
+  }
+
+  @Test
+  public void testWaiterReleasedOnComplete() throws Exception {
+    final EhcacheLoadCoalescer<String> coalescer = new EhcacheLoadCoalescer<String>(10000);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    try {
+      Assert.assertTrue(coalescer.claimOrAwait("key"));
+      Future<Boolean> waiter = executor.submit(new Callable<Boolean>() {
+        public Boolean call() {
+          return coalescer.claimOrAwait("key");
+        }
+      });
+
+      Thread.sleep(50);
+      Assert.assertFalse(waiter.isDone());
+      coalescer.complete("key");
+      Assert.assertFalse(waiter.get(5, TimeUnit.SECONDS));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testClaimLapses() throws Exception {
+    final EhcacheLoadCoalescer<String> coalescer = new EhcacheLoadCoalescer<String>(50);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    try {
+      Assert.assertTrue(coalescer.claimOrAwait("key"));
+      Future<Boolean> waiter = executor.submit(new Callable<Boolean>() {
+        public Boolean call() {
+          return coalescer.claimOrAwait("key");
+        }
+      });
+
+      Assert.assertTrue(waiter.get(5, TimeUnit.SECONDS));
+      Assert.assertEquals(1, coalescer.size());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testUnfilledMissIsReleased() throws Exception {
+    EhcacheLoadCoalescer<String> coalescer = new EhcacheLoadCoalescer<String>(20);
+
+    Assert.assertTrue(coalescer.claimOrAwait("unknown"));
+    Assert.assertEquals(1, coalescer.size());
+
+    Thread.sleep(50);
+    Assert.assertEquals(0, coalescer.size());
+  }
+
+  @Test
+  public void testClaimsAreBounded() {
+    EhcacheLoadCoalescer<String> coalescer = new EhcacheLoadCoalescer<String>(10000, 2);
+
+    Assert.assertTrue(coalescer.claimOrAwait("key1"));
+    Assert.assertTrue(coalescer.claimOrAwait("key2"));
+    Assert.assertTrue(coalescer.claimOrAwait("key3"));
+    Assert.assertEquals(2, coalescer.size());
+
+    coalescer.complete("key1");
+    Assert.assertTrue(coalescer.claimOrAwait("key3"));
+    Assert.assertEquals(2, coalescer.size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidTimeout() {
+    new EhcacheLoadCoalescer<String>(0);
+  }
+}
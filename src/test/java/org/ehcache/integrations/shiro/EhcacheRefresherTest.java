@@ -0,0 +1,210 @@
+/**
+ * Copyright Terracotta, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ehcache.integrations.shiro;
+
+import org.apache.shiro.session.mgt.SimpleSession;
+import org.ehcache.Cache;
+import org.ehcache.CacheManager;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.CacheManagerBuilder;
+import org.ehcache.config.builders.ExpiryPolicyBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+public class EhcacheRefresherTest {
+
+  private CacheManager cacheManager;
+
+  private Cache<Long, String> ttlCache;
+
+  private ExecutorService executor;
+
+  private final AtomicInteger loads = new AtomicInteger();
+
+  private final Function<Long, String> loader = key -> "reloaded-" + key + "-" + loads.incrementAndGet();
+
+  @Before
+  public void setUp() {
+    cacheManager = CacheManagerBuilder.newCacheManagerBuilder()
+            .withCache("ttlCache", CacheConfigurationBuilder.newCacheConfigurationBuilder(
+                    Long.class, String.class, ResourcePoolsBuilder.heap(100))
+                    .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(Duration.ofHours(1))))
+            .withCache("ttiCache", CacheConfigurationBuilder.newCacheConfigurationBuilder(
+                    Long.class, String.class, ResourcePoolsBuilder.heap(100))
+                    .withExpiry(ExpiryPolicyBuilder.timeToIdleExpiration(Duration.ofSeconds(1))))
+            .withCache("eternalCache", CacheConfigurationBuilder.newCacheConfigurationBuilder(
+                    Long.class, String.class, ResourcePoolsBuilder.heap(100)))
+            .build(true);
+    ttlCache = cacheManager.getCache("ttlCache", Long.class, String.class);
+    executor = Executors.newSingleThreadExecutor();
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+    cacheManager.close();
+  }
+
+  @Test
+  public void testReadWithinWindowReloads() throws Exception {
+    EhcacheRefresher<Long, String> refresher = register(ttlCache, Duration.ofHours(1));
+    ttlCache.put(1L, "value");
+
+    refresher.accessed(1L, "value");
+    awaitExecutor();
+
+    Assert.assertEquals(1, loads.get());
+    Assert.assertEquals("reloaded-1-1", ttlCache.get(1L));
+    Assert.assertEquals(1, refresher.size());
+  }
+
+  @Test
+  public void testReadOutsideWindowDoesNotReload() throws Exception {
+    EhcacheRefresher<Long, String> refresher = register(ttlCache, Duration.ofMinutes(1));
+    ttlCache.put(1L, "value");
+
+    refresher.accessed(1L, "value");
+    awaitExecutor();
+
+    Assert.assertEquals(0, loads.get());
+    Assert.assertEquals("value", ttlCache.get(1L));
+  }
+
+  @Test
+  public void testReadsRestartTimeToIdle() throws Exception {
+    Cache<Long, String> ttiCache = cacheManager.getCache("ttiCache", Long.class, String.class);
+    EhcacheRefresher<Long, String> refresher = register(ttiCache, Duration.ofMillis(500));
+    ttiCache.put(1L, "value");
+
+    Thread.sleep(600);
+    refresher.accessed(1L, "value");
+    awaitExecutor();
+
+    Assert.assertEquals(0, loads.get());
+    Assert.assertEquals(1, refresher.size());
+  }
+
+  @Test
+  public void testEternalEntriesAreNotTracked() throws Exception {
+    Cache<Long, String> eternalCache = cacheManager.getCache("eternalCache", Long.class, String.class);
+    EhcacheRefresher<Long, String> refresher = register(eternalCache, Duration.ofHours(1));
+    eternalCache.put(1L, "value");
+
+    refresher.accessed(1L, "value");
+    awaitExecutor();
+
+    Assert.assertEquals(0, refresher.size());
+    Assert.assertEquals(0, loads.get());
+  }
+
+  @Test
+  public void testRemovedEntriesAreNotReloaded() throws Exception {
+    EhcacheRefresher<Long, String> refresher = register(ttlCache, Duration.ofHours(1));
+    ttlCache.put(1L, "value");
+    ttlCache.remove(1L);
+
+    refresher.accessed(1L, "value");
+    awaitExecutor();
+
+    Assert.assertEquals(0, refresher.size());
+    Assert.assertNull(ttlCache.get(1L));
+  }
+
+  @Test
+  public void testSeedAndReset() {
+    ttlCache.put(1L, "value");
+    ttlCache.put(2L, "value");
+    EhcacheRefresher<Long, String> refresher = register(ttlCache, Duration.ofHours(1));
+
+    Assert.assertEquals(2, refresher.size());
+    refresher.reset();
+    Assert.assertEquals(0, refresher.size());
+  }
+
+  @Test
+  public void testEhcacheShiroRefreshAhead() throws Exception {
+    EhcacheShiro<Long, String> shiroCache = new EhcacheShiro<Long, String>(ttlCache);
+    shiroCache.put(1L, "value");
+    shiroCache.setRefreshAhead(loader, Duration.ofHours(1));
+
+    try {
+      Assert.assertTrue(shiroCache.isRefreshAhead());
+      Assert.assertEquals("value", shiroCache.get(1L));
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+      while (!"reloaded-1-1".equals(ttlCache.get(1L)) && System.nanoTime() < deadline) {
+        Thread.sleep(10);
+      }
+      Assert.assertEquals("reloaded-1-1", shiroCache.get(1L));
+    } finally {
+      shiroCache.setRefreshAhead(null, null);
+    }
+    Assert.assertFalse(shiroCache.isRefreshAhead());
+  }
+
+  @Test
+  public void testRefreshAheadStoresSessionImages() throws Exception {
+    Cache<Object, Object> sessionCache = cacheManager.createCache("sessionCache",
+            CacheConfigurationBuilder.newCacheConfigurationBuilder(Object.class, Object.class, ResourcePoolsBuilder.heap(100))
+                    .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(Duration.ofHours(1))));
+    EhcacheShiro<Object, Object> shiroCache = new EhcacheShiro<Object, Object>(sessionCache);
+    shiroCache.setDeltaStorage(true);
+    SimpleSession session = new SimpleSession("127.0.0.1");
+    session.setId("id");
+    shiroCache.put("id", session);
+    SimpleSession reloaded = new SimpleSession("127.0.0.1");
+    reloaded.setId("id");
+    reloaded.setAttribute("state", "reloaded");
+    shiroCache.setRefreshAhead(key -> reloaded, Duration.ofHours(1));
+
+    try {
+      shiroCache.get("id");
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+      while (((SessionImage) sessionCache.get("id")).toSession().getAttribute("state") == null
+             && System.nanoTime() < deadline) {
+        Thread.sleep(10);
+      }
+      Assert.assertEquals("reloaded", ((SimpleSession) shiroCache.get("id")).getAttribute("state"));
+    } finally {
+      shiroCache.setRefreshAhead(null, null);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidWindow() {
+    new EhcacheRefresher<Long, String>(ttlCache, loader, ttlCache::replace, Duration.ZERO, executor);
+  }
+
+  private EhcacheRefresher<Long, String> register(Cache<Long, String> cache, Duration window) {
+    EhcacheRefresher<Long, String> refresher = new EhcacheRefresher<Long, String>(cache, loader, cache::replace, window, executor);
+    refresher.register();
+    return refresher;
+  }
+
+  private void awaitExecutor() throws Exception {
+    executor.submit(() -> { }).get(5, TimeUnit.SECONDS);
+  }
+}
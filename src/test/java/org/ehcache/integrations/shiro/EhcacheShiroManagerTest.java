@@ -17,9 +17,36 @@
 package org.ehcache.integrations.shiro;
 
 import org.apache.shiro.cache.Cache;
+import org.apache.shiro.cache.CacheException;
+import org.apache.shiro.session.mgt.SimpleSession;
+import org.ehcache.config.CacheRuntimeConfiguration;
+import org.ehcache.config.Configuration;
+import org.ehcache.config.ResourcePools;
+import org.ehcache.config.ResourceType;
+import org.ehcache.impl.config.serializer.DefaultSerializerConfiguration;
+import org.ehcache.spi.service.ServiceConfiguration;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class EhcacheShiroManagerTest {
 
   @Test
@@ -38,4 +65,529 @@ public class EhcacheShiroManagerTest {
       cacheManager.destroy();
     }
   }
+
+  @Test
+  public void testDefaultSessionCache() throws Exception {
+    EhcacheShiroManager cacheManager = new EhcacheShiroManager();
+
+    try {
+      Cache<Object, Object> sessionCache = cacheManager.getCache("shiro-activeSessionCache");
+      for (int i = 0; i < 20000; i++) {
+        SimpleSession session = new SimpleSession("127.0.0.1");
+        session.setId(UUID.randomUUID().toString());
+        session.setAttribute("index", Integer.valueOf(i));
+        sessionCache.put(session.getId(), session);
+      }
+
+      int sessions = 0;
+      for (Object id : sessionCache.keys()) {
+        SimpleSession session = (SimpleSession) sessionCache.get(id);
+        Assert.assertEquals(id, session.getId());
+        sessions++;
+      }
+      Assert.assertEquals(20000, sessions);
+    } finally {
+      cacheManager.destroy();
+    }
+  }
+
+  @Test
+  public void testGetCacheIsMemoized() throws Exception {
+    EhcacheShiroManager cacheManager = new EhcacheShiroManager();
+
+    try {
+      Cache<Object, Object> first = cacheManager.getCache("someCache");
+      Cache<Object, Object> second = cacheManager.getCache("someCache");
+      Assert.assertSame(first, second);
+      Assert.assertNotSame(first, cacheManager.getCache("someOtherCache"));
+    } finally {
+      cacheManager.destroy();
+    }
+  }
+
+  @Test
+  public void testDestroyDropsMemoizedCaches() throws Exception {
+    EhcacheShiroManager cacheManager = new EhcacheShiroManager();
+
+    try {
+      Cache<Object, Object> first = cacheManager.getCache("someCache");
+      cacheManager.destroy();
+
+      Cache<Object, Object> second = cacheManager.getCache("someCache");
+      Assert.assertNotSame(first, second);
+      Assert.assertNull(second.put("key", "value"));
+      Assert.assertEquals("value", second.get("key"));
+    } finally {
+      cacheManager.destroy();
+    }
+  }
+
+  @Test
+  public void testCountedSizeCaches() throws Exception {
+    EhcacheShiroManager cacheManager = new EhcacheShiroManager();
+    cacheManager.setCountedSizeCaches(Collections.singleton("countedCache"));
+    cacheManager.setSizeReconcileIntervalMillis(60000);
+
+    try {
+      EhcacheShiro<Object, Object> counted = (EhcacheShiro<Object, Object>) cacheManager.<Object, Object>getCache("countedCache");
+      EhcacheShiro<Object, Object> exact = (EhcacheShiro<Object, Object>) cacheManager.<Object, Object>getCache("exactCache");
+      Assert.assertEquals(EhcacheShiro.SizeMode.COUNTED, counted.getSizeMode());
+      Assert.assertEquals(EhcacheShiro.SizeMode.EXACT, exact.getSizeMode());
+      Assert.assertEquals(Duration.ofMinutes(1), counted.getSizeReconcileInterval());
+
+      counted.put("key", "value");
+      Assert.assertEquals(1, counted.size());
+    } finally {
+      cacheManager.destroy();
+    }
+  }
+
+  @Test
+  public void testBlindPutCaches() throws Exception {
+    EhcacheShiroManager cacheManager = new EhcacheShiroManager();
+    cacheManager.setBlindPutCaches(Collections.singleton("blindCache"));
+
+    try {
+      EhcacheShiro<Object, Object> blind = (EhcacheShiro<Object, Object>) cacheManager.<Object, Object>getCache("blindCache");
+      EhcacheShiro<Object, Object> regular = (EhcacheShiro<Object, Object>) cacheManager.<Object, Object>getCache("regularCache");
+      Assert.assertEquals(EhcacheShiro.PutMode.BLIND, blind.getPutMode());
+      Assert.assertEquals(EhcacheShiro.PutMode.RETURN_PREVIOUS, regular.getPutMode());
+    } finally {
+      cacheManager.destroy();
+    }
+  }
+
+  @Test
+  public void testBlindRemoveCaches() throws Exception {
+    EhcacheShiroManager cacheManager = new EhcacheShiroManager();
+    cacheManager.setBlindRemoveCaches(Collections.singleton("blindCache"));
+
+    try {
+      EhcacheShiro<Object, Object> blind = (EhcacheShiro<Object, Object>) cacheManager.<Object, Object>getCache("blindCache");
+      EhcacheShiro<Object, Object> regular = (EhcacheShiro<Object, Object>) cacheManager.<Object, Object>getCache("regularCache");
+      Assert.assertEquals(EhcacheShiro.RemoveMode.BLIND, blind.getRemoveMode());
+      Assert.assertEquals(EhcacheShiro.RemoveMode.RETURN_PREVIOUS, regular.getRemoveMode());
+    } finally {
+      cacheManager.destroy();
+    }
+  }
+
+  @Test
+  public void testSingleFlightCaches() throws Exception {
+    EhcacheShiroManager cacheManager = new EhcacheShiroManager();
+    cacheManager.setSingleFlightCaches(Collections.singleton("authorizationCache"));
+
+    try {
+      EhcacheShiro<Object, Object> singleFlight = (EhcacheShiro<Object, Object>) cacheManager.<Object, Object>getCache("authorizationCache");
+      EhcacheShiro<Object, Object> regular = (EhcacheShiro<Object, Object>) cacheManager.<Object, Object>getCache("regularCache");
+      Assert.assertEquals(EhcacheShiro.GetMode.SINGLE_FLIGHT, singleFlight.getGetMode());
+      Assert.assertEquals(EhcacheShiro.GetMode.DIRECT, regular.getGetMode());
+    } finally {
+      cacheManager.destroy();
+    }
+  }
+
+  @Test
+  public void testConcurrentGetCacheOnColdName() throws Exception {
+    final EhcacheShiroManager cacheManager = new EhcacheShiroManager();
+    cacheManager.init();
+
+    final int threads = 16;
+    final CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+    try {
+      List<Future<Cache<Object, Object>>> futures = new ArrayList<Future<Cache<Object, Object>>>();
+      for (int i = 0; i < threads; i++) {
+        futures.add(executor.submit(new Callable<Cache<Object, Object>>() {
+          public Cache<Object, Object> call() throws Exception {
+            start.await();
+            return cacheManager.getCache("coldCache");
+          }
+        }));
+      }
+      start.countDown();
+
+      Cache<Object, Object> expected = futures.get(0).get();
+      Assert.assertNotNull(expected);
+      for (Future<Cache<Object, Object>> future : futures) {
+        Assert.assertSame(expected, future.get());
+      }
+    } finally {
+      executor.shutdownNow();
+      cacheManager.destroy();
+    }
+  }
+
+  @Test
+  public void testFailedCacheCreationIsRetried() throws Exception {
+    EhcacheShiroManager cacheManager = new EhcacheShiroManager();
+    cacheManager.setCacheTemplates(Collections.singletonMap("broken", "undefinedTemplate"));
+    cacheManager.init();
+
+    try {
+      try {
+        cacheManager.getCache("broken");
+        Assert.fail("Expected the undefined template to fail the creation");
+      } catch (CacheException e) {
+        // expected
+      }
+
+      cacheManager.setCacheTemplates(Collections.<String, String>emptyMap());
+      Assert.assertNotNull(cacheManager.getCache("broken"));
+    } finally {
+      cacheManager.destroy();
+    }
+  }
+
+  @Test
+  public void testConcurrentStartupCreatesOneManager() throws Exception {
+    final AtomicInteger created = new AtomicInteger();
+    final EhcacheShiroManager cacheManager = new EhcacheShiroManager() {
+      @Override
+      org.ehcache.CacheManager newCacheManager(Configuration configuration) {
+        created.incrementAndGet();
+        try {
+          Thread.sleep(50);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return super.newCacheManager(configuration);
+      }
+    };
+
+    final int threads = 16;
+    final CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+    try {
+      List<Future<Cache<Object, Object>>> futures = new ArrayList<Future<Cache<Object, Object>>>();
+      for (int i = 0; i < threads; i++) {
+        final String name = "cache-" + i;
+        futures.add(executor.submit(new Callable<Cache<Object, Object>>() {
+          public Cache<Object, Object> call() throws Exception {
+            start.await();
+            return cacheManager.getCache(name);
+          }
+        }));
+      }
+      start.countDown();
+
+      for (Future<Cache<Object, Object>> future : futures) {
+        Cache<Object, Object> cache = future.get();
+        Assert.assertNull(cache.put("key", "value"));
+        Assert.assertEquals("value", cache.get("key"));
+      }
+      Assert.assertEquals(1, created.get());
+      for (int i = 0; i < threads; i++) {
+        Assert.assertNotNull(cacheManager.getCacheManager().getCache("cache-" + i, Object.class, Object.class));
+      }
+    } finally {
+      executor.shutdownNow();
+      cacheManager.destroy();
+    }
+  }
+
+  @Test
+  public void testEagerInit() throws Exception {
+    EhcacheShiroManager cacheManager = new EhcacheShiroManager();
+    cacheManager.setEagerInit(true);
+    cacheManager.setEagerInitThreads(2);
+    List<String> dynamicNames = new ArrayList<String>();
+    for (int i = 0; i < 20; i++) {
+      dynamicNames.add("realm-" + i + ".authorizationCache");
+    }
+    cacheManager.setEagerCaches(new HashSet<String>(dynamicNames));
+
+    try {
+      cacheManager.init();
+
+      for (String name : dynamicNames) {
+        Assert.assertNotNull(cacheManager.getCacheManager().getCache(name, Object.class, Object.class));
+      }
+      Cache<Object, Object> sessionCache = cacheManager.getCache("shiro-activeSessionCache");
+      Assert.assertSame(sessionCache, cacheManager.getCache("shiro-activeSessionCache"));
+      Assert.assertNull(sessionCache.put("id", new SimpleSession("127.0.0.1")));
+      Assert.assertNotNull(sessionCache.get("id"));
+    } finally {
+      cacheManager.destroy();
+    }
+  }
+
+  @Test
+  public void testLazyInitByDefault() throws Exception {
+    EhcacheShiroManager cacheManager = new EhcacheShiroManager();
+    cacheManager.setEagerCaches(Collections.singleton("dynamicCache"));
+
+    try {
+      cacheManager.init();
+      Assert.assertNull(cacheManager.getCacheManager().getCache("dynamicCache", Object.class, Object.class));
+    } finally {
+      cacheManager.destroy();
+    }
+  }
+
+  @Test(expected = CacheException.class)
+  public void testEagerInitFailure() throws Exception {
+    EhcacheShiroManager cacheManager = new EhcacheShiroManager();
+    cacheManager.setEagerInit(true);
+    cacheManager.setEagerCaches(Collections.singleton("myRealm.authorizationCache"));
+    cacheManager.setCacheTemplates(Collections.singletonMap("*.authorizationCache", "undefinedTemplate"));
+
+    try {
+      cacheManager.init();
+    } finally {
+      cacheManager.destroy();
+    }
+  }
+
+  @Test
+  public void testTouchCoalescingCaches() throws Exception {
+    EhcacheShiroManager cacheManager = new EhcacheShiroManager();
+    cacheManager.setTouchCoalescingCaches(Collections.singleton("shiro-activeSessionCache"));
+    cacheManager.setTouchFlushIntervalMillis(60000);
+
+    try {
+      EhcacheShiro<Object, Object> sessionCache = (EhcacheShiro<Object, Object>) cacheManager.<Object, Object>getCache("shiro-activeSessionCache");
+      EhcacheShiro<Object, Object> regular = (EhcacheShiro<Object, Object>) cacheManager.<Object, Object>getCache("regularCache");
+      Assert.assertTrue(sessionCache.isTouchCoalescing());
+      Assert.assertFalse(regular.isTouchCoalescing());
+    } finally {
+      cacheManager.destroy();
+    }
+  }
+
+  @Test
+  public void testDeltaStorageCaches() throws Exception {
+    EhcacheShiroManager cacheManager = new EhcacheShiroManager();
+    cacheManager.setDeltaStorageCaches(Collections.singleton("shiro-activeSessionCache"));
+
+    try {
+      EhcacheShiro<Object, Object> sessionCache = (EhcacheShiro<Object, Object>) cacheManager.<Object, Object>getCache("shiro-activeSessionCache");
+      EhcacheShiro<Object, Object> regular = (EhcacheShiro<Object, Object>) cacheManager.<Object, Object>getCache("regularCache");
+      Assert.assertTrue(sessionCache.isDeltaStorage());
+      Assert.assertFalse(regular.isDeltaStorage());
+
+      SimpleSession session = new SimpleSession("127.0.0.1");
+      session.setId(UUID.randomUUID().toString());
+      session.setAttribute("counter", 1);
+      sessionCache.put(session.getId(), session);
+      session.setAttribute("counter", 2);
+      sessionCache.put(session.getId(), session);
+      Assert.assertEquals(2, ((SimpleSession) sessionCache.get(session.getId())).getAttribute("counter"));
+    } finally {
+      cacheManager.destroy();
+    }
+  }
+
+  @Test
+  public void testOffHeapSessionCaches() throws Exception {
+    EhcacheShiroManager cacheManager = new EhcacheShiroManager();
+    cacheManager.setOffHeapSessionCaches(new HashSet<String>(Arrays.asList("shiro-activeSessionCache", "dynamicCache")));
+    cacheManager.setOffHeapSessionHeapEntries(100);
+    cacheManager.setOffHeapSessionSizeMB(16);
+
+    try {
+      EhcacheShiro<Object, Object> sessionCache = (EhcacheShiro<Object, Object>) cacheManager.<Object, Object>getCache("shiro-activeSessionCache");
+      cacheManager.getCache("dynamicCache");
+      cacheManager.getCache("regularCache");
+      Assert.assertEquals(EhcacheShiro.PutMode.RETURN_PREVIOUS, sessionCache.getPutMode());
+      Assert.assertEquals(EhcacheShiro.RemoveMode.RETURN_PREVIOUS, sessionCache.getRemoveMode());
+
+      for (String name : Arrays.asList("shiro-activeSessionCache", "dynamicCache")) {
+        CacheRuntimeConfiguration<Object, Object> configuration = cacheManager.getCacheManager()
+                .getCache(name, Object.class, Object.class).getRuntimeConfiguration();
+        ResourcePools pools = configuration.getResourcePools();
+        Assert.assertEquals(100, pools.getPoolForResource(ResourceType.Core.HEAP).getSize());
+        Assert.assertEquals(16, pools.getPoolForResource(ResourceType.Core.OFFHEAP).getSize());
+        Assert.assertNull(pools.getPoolForResource(ResourceType.Core.DISK));
+
+        List<Class<?>> serializers = new ArrayList<Class<?>>();
+        for (ServiceConfiguration<?> service : configuration.getServiceConfigurations()) {
+          if (service instanceof DefaultSerializerConfiguration) {
+            serializers.add(((DefaultSerializerConfiguration<?>) service).getClazz());
+          }
+        }
+        Assert.assertEquals(2, serializers.size());
+        Assert.assertTrue(serializers.contains(SessionIdSerializer.class));
+        Assert.assertTrue(serializers.contains(SimpleSessionSerializer.class));
+      }
+      Assert.assertNull(cacheManager.getCacheManager().getCache("regularCache", Object.class, Object.class)
+              .getRuntimeConfiguration().getResourcePools().getPoolForResource(ResourceType.Core.OFFHEAP));
+
+      for (int i = 0; i < 1000; i++) {
+        SimpleSession session = new SimpleSession("127.0.0.1");
+        session.setId(UUID.randomUUID().toString());
+        session.setAttribute("index", i);
+        Assert.assertNull(sessionCache.put(session.getId(), session));
+        session.setAttribute("index", -i);
+        Assert.assertEquals(i, ((SimpleSession) sessionCache.put(session.getId(), session)).getAttribute("index"));
+      }
+      int sessions = 0;
+      for (Object id : sessionCache.keys()) {
+        Assert.assertEquals(id, ((SimpleSession) sessionCache.get(id)).getId());
+        sessions++;
+      }
+      Assert.assertEquals(1000, sessions);
+    } finally {
+      cacheManager.destroy();
+    }
+  }
+
+  @Test
+  public void testCacheTemplates() throws Exception {
+    EhcacheShiroManager cacheManager = new EhcacheShiroManager();
+    cacheManager.setCacheManagerConfigFile("classpath:org/ehcache/integrations/shiro/ehcache-templates.xml");
+    Map<String, String> templates = new LinkedHashMap<String, String>();
+    templates.put("*.authorizationCache", "authorizationTemplate");
+    templates.put("*.authenticationCache", "authenticationTemplate");
+    templates.put("adminRealm.authorizationCache", "authenticationTemplate");
+    cacheManager.setCacheTemplates(templates);
+
+    try {
+      Assert.assertEquals("authorizationTemplate", cacheManager.templateFor("myRealm.authorizationCache"));
+      Assert.assertEquals("authenticationTemplate", cacheManager.templateFor("adminRealm.authorizationCache"));
+      Assert.assertEquals("authenticationTemplate", cacheManager.templateFor("myRealm.authenticationCache"));
+      Assert.assertEquals("defaultCacheConfiguration", cacheManager.templateFor("myRealm.authorizationCache.old"));
+      Assert.assertEquals("defaultCacheConfiguration", cacheManager.templateFor("someCache"));
+
+      Assert.assertEquals(200, heapEntries(cacheManager, "myRealm.authorizationCache"));
+      Assert.assertEquals(100, heapEntries(cacheManager, "adminRealm.authorizationCache"));
+      Assert.assertEquals(100, heapEntries(cacheManager, "myRealm.authenticationCache"));
+      Assert.assertEquals(1000, heapEntries(cacheManager, "someCache"));
+    } finally {
+      cacheManager.destroy();
+    }
+  }
+
+  @Test
+  public void testTemplateInstancesAreNotShared() throws Exception {
+    EhcacheShiroManager cacheManager = new EhcacheShiroManager();
+    cacheManager.setCacheManagerConfigFile("classpath:org/ehcache/integrations/shiro/ehcache-templates.xml");
+    cacheManager.setCacheTemplates(Collections.singletonMap("tenant-*", "sessionTemplate"));
+    cacheManager.setOffHeapSessionCaches(Collections.singleton("tenant-offheap"));
+    cacheManager.setOffHeapSessionSizeMB(1);
+
+    try {
+      for (String name : Arrays.asList("tenant-1", "tenant-2", "tenant-offheap")) {
+        cacheManager.getCache(name);
+      }
+      CacheRuntimeConfiguration<Object, Object> first = runtimeConfiguration(cacheManager, "tenant-1");
+      CacheRuntimeConfiguration<Object, Object> second = runtimeConfiguration(cacheManager, "tenant-2");
+      CacheRuntimeConfiguration<Object, Object> offHeap = runtimeConfiguration(cacheManager, "tenant-offheap");
+
+      Assert.assertTrue(first.getExpiryPolicy() instanceof SessionExpiryPolicy);
+      Assert.assertNotSame(first.getExpiryPolicy(), second.getExpiryPolicy());
+      Assert.assertNotSame(first.getExpiryPolicy(), offHeap.getExpiryPolicy());
+      Assert.assertEquals(500, first.getResourcePools().getPoolForResource(ResourceType.Core.HEAP).getSize());
+      Assert.assertNotNull(offHeap.getResourcePools().getPoolForResource(ResourceType.Core.OFFHEAP));
+      Assert.assertNull(second.getResourcePools().getPoolForResource(ResourceType.Core.OFFHEAP));
+    } finally {
+      cacheManager.destroy();
+    }
+  }
+
+  @Test(expected = CacheException.class)
+  public void testUndefinedCacheTemplate() throws Exception {
+    EhcacheShiroManager cacheManager = new EhcacheShiroManager();
+    cacheManager.setCacheTemplates(Collections.singletonMap("*.authorizationCache", "undefinedTemplate"));
+
+    try {
+      cacheManager.getCache("myRealm.authorizationCache");
+    } finally {
+      cacheManager.destroy();
+    }
+  }
+
+  private static CacheRuntimeConfiguration<Object, Object> runtimeConfiguration(EhcacheShiroManager cacheManager, String name) {
+    return cacheManager.getCacheManager().getCache(name, Object.class, Object.class).getRuntimeConfiguration();
+  }
+
+  private static long heapEntries(EhcacheShiroManager cacheManager, String name) {
+    cacheManager.getCache(name);
+    return cacheManager.getCacheManager().getCache(name, Object.class, Object.class).getRuntimeConfiguration()
+            .getResourcePools().getPoolForResource(ResourceType.Core.HEAP).getSize();
+  }
+
+  @Test
+  public void testWriteBehindCaches() throws Exception {
+    RecordingSessionSink sink = new RecordingSessionSink();
+    EhcacheShiroManager cacheManager = new EhcacheShiroManager();
+    cacheManager.setSessionSink(sink);
+    cacheManager.setWriteBehindCaches(new HashSet<String>(Arrays.asList("shiro-activeSessionCache", "dynamicCache")));
+    cacheManager.setWriteBehindMaxDelayMillis(50);
+
+    try {
+      Cache<Object, Object> sessionCache = cacheManager.getCache("shiro-activeSessionCache");
+      Cache<Object, Object> dynamicCache = cacheManager.getCache("dynamicCache");
+      Cache<Object, Object> regularCache = cacheManager.getCache("regularCache");
+
+      String id = UUID.randomUUID().toString();
+      for (int i = 0; i < 100; i++) {
+        SimpleSession session = new SimpleSession("127.0.0.1");
+        session.setId(id);
+        session.setAttribute("counter", i);
+        sessionCache.put(id, session);
+      }
+      dynamicCache.put("dynamicKey", "dynamicValue");
+      regularCache.put("regularKey", "regularValue");
+
+      sink.awaitStored("dynamicKey");
+      sink.awaitStored(id);
+      Assert.assertEquals(99, ((SimpleSession) sink.stored.get(id)).getAttribute("counter"));
+      Assert.assertTrue(sink.writes < 100);
+      Assert.assertFalse(sink.stored.containsKey("regularKey"));
+
+      sessionCache.remove(id);
+      sink.awaitDeleted(id);
+    } finally {
+      cacheManager.destroy();
+    }
+  }
+
+  @Test
+  public void testWriteBehindWithoutSink() throws Exception {
+    EhcacheShiroManager cacheManager = new EhcacheShiroManager();
+    cacheManager.setWriteBehindCaches(Collections.singleton("shiro-activeSessionCache"));
+
+    try {
+      Cache<Object, Object> sessionCache = cacheManager.getCache("shiro-activeSessionCache");
+      sessionCache.put("id", new SimpleSession("127.0.0.1"));
+      Assert.assertNotNull(sessionCache.get("id"));
+    } finally {
+      cacheManager.destroy();
+    }
+  }
+
+  private static class RecordingSessionSink implements SessionSink {
+
+    private final Map<Object, Object> stored = new ConcurrentHashMap<Object, Object>();
+
+    private volatile int writes;
+
+    public synchronized void storeAll(Map<?, ?> sessions) {
+      writes += sessions.size();
+      stored.putAll(sessions);
+    }
+
+    public synchronized void deleteAll(Collection<?> sessionIds) {
+      stored.keySet().removeAll(sessionIds);
+    }
+
+    void awaitStored(Object key) throws InterruptedException {
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+      while (!stored.containsKey(key) && System.nanoTime() < deadline) {
+        Thread.sleep(10);
+      }
+      Assert.assertTrue(stored.containsKey(key));
+    }
+
+    void awaitDeleted(Object key) throws InterruptedException {
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+      while (stored.containsKey(key) && System.nanoTime() < deadline) {
+        Thread.sleep(10);
+      }
+      Assert.assertFalse(stored.containsKey(key));
+    }
+  }
 }
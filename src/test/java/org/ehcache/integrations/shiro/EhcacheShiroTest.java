@@ -20,7 +20,23 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 public class EhcacheShiroTest extends BaseEhcacheShiroTest {
 
@@ -62,12 +78,16 @@ public class EhcacheShiroTest extends BaseEhcacheShiroTest {
   }
 
   private void putElementsAndAssertSize() {
+    putElementsAndAssertSize(10);
+  }
+
+  private void putElementsAndAssertSize(int expectedSize) {
     int count = 10;
     for (int i = 0; i < count; i++) {
       shiroCache.put(Long.valueOf(i), "prefix-" + i);
     }
 
-    Assert.assertEquals(10, shiroCache.size());
+    Assert.assertEquals(expectedSize, shiroCache.size());
   }
 
   @Test
@@ -108,4 +128,260 @@ public class EhcacheShiroTest extends BaseEhcacheShiroTest {
     Assert.assertNull(shiroCache.put(key, value));
     Assert.assertEquals(value, shiroCache.remove(key));
   }
+
+  @Test
+  public void testCountedSize() {
+    shiroCache.put(Long.valueOf(-1), "before");
+    shiroCache.setSizeMode(EhcacheShiro.SizeMode.COUNTED);
+    Assert.assertEquals(EhcacheShiro.SizeMode.COUNTED, shiroCache.getSizeMode());
+    Assert.assertEquals(1, shiroCache.size());
+
+    putElementsAndAssertSize(11);
+    shiroCache.put(Long.valueOf(0), "updated");
+    Assert.assertEquals(11, shiroCache.size());
+
+    shiroCache.remove(Long.valueOf(0));
+    shiroCache.remove(Long.valueOf(0));
+    Assert.assertEquals(10, shiroCache.size());
+
+    shiroCache.clear();
+    Assert.assertEquals(0, shiroCache.size());
+  }
+
+  @Test
+  public void testCountedSizeWithEvictions() {
+    shiroCache.setSizeMode(EhcacheShiro.SizeMode.COUNTED);
+    for (int i = 0; i < 500; i++) {
+      shiroCache.put(Long.valueOf(i), "prefix-" + i);
+    }
+
+    Assert.assertEquals(exactSize(), shiroCache.size());
+  }
+
+  @Test
+  public void testCountedSizeIsReconciled() throws Exception {
+    putElementsAndAssertSize();
+    shiroCache.setSizeReconcileInterval(Duration.ofMillis(50));
+    shiroCache.setSizeMode(EhcacheShiro.SizeMode.COUNTED);
+
+    try {
+      Assert.assertEquals(10, shiroCache.size());
+      basicCache.clear();
+      Assert.assertEquals(10, shiroCache.size());
+
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+      while (shiroCache.size() != 0 && System.nanoTime() < deadline) {
+        Thread.sleep(10);
+      }
+      Assert.assertEquals(0, shiroCache.size());
+    } finally {
+      shiroCache.setSizeMode(EhcacheShiro.SizeMode.EXACT);
+    }
+  }
+
+  @Test
+  public void testBackToExactSize() {
+    shiroCache.setSizeMode(EhcacheShiro.SizeMode.COUNTED);
+    shiroCache.setSizeMode(EhcacheShiro.SizeMode.EXACT);
+    putElementsAndAssertSize();
+    basicCache.clear();
+    Assert.assertEquals(0, shiroCache.size());
+  }
+
+  private int exactSize() {
+    int size = 0;
+    for (org.ehcache.Cache.Entry<Long, String> ignored : basicCache) {
+      size++;
+    }
+    return size;
+  }
+
+  @Test
+  public void testBlindPut() {
+    shiroCache.setPutMode(EhcacheShiro.PutMode.BLIND);
+    Assert.assertEquals(EhcacheShiro.PutMode.BLIND, shiroCache.getPutMode());
+
+    final Long key = Long.valueOf(1);
+    Assert.assertNull(shiroCache.put(key, "some string value"));
+    Assert.assertNull(shiroCache.put(key, "another value"));
+    Assert.assertEquals("another value", shiroCache.get(key));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNullPutMode() {
+    shiroCache.setPutMode(null);
+  }
+
+  @Test
+  public void testRemoveAbsent() {
+    Assert.assertNull(shiroCache.remove(Long.valueOf(1)));
+  }
+
+  @Test
+  public void testBlindRemove() {
+    shiroCache.setRemoveMode(EhcacheShiro.RemoveMode.BLIND);
+    Assert.assertEquals(EhcacheShiro.RemoveMode.BLIND, shiroCache.getRemoveMode());
+
+    final Long key = Long.valueOf(1);
+    shiroCache.put(key, "some string value");
+    Assert.assertNull(shiroCache.remove(key));
+    Assert.assertNull(shiroCache.get(key));
+  }
+
+  @Test
+  public void testDiscard() {
+    final Long key = Long.valueOf(1);
+    shiroCache.put(key, "some string value");
+    shiroCache.discard(key);
+    Assert.assertNull(shiroCache.get(key));
+    shiroCache.discard(key);
+  }
+
+  @Test
+  public void testConcurrentRemove() throws Exception {
+    final Long key = Long.valueOf(1);
+    final int threads = 8;
+    final int rounds = 1000;
+    final AtomicInteger removed = new AtomicInteger();
+    final CountDownLatch start = new CountDownLatch(1);
+    Thread[] removers = new Thread[threads];
+
+    for (int i = 0; i < threads; i++) {
+      removers[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          for (int j = 0; j < rounds; j++) {
+            shiroCache.put(key, "value-" + j);
+            if (shiroCache.remove(key) != null) {
+              removed.incrementAndGet();
+            }
+          }
+        }
+      };
+      removers[i].start();
+    }
+    start.countDown();
+    for (Thread remover : removers) {
+      remover.join();
+    }
+
+    Assert.assertNull(shiroCache.get(key));
+    Assert.assertTrue(removed.get() > 0);
+  }
+
+  @Test
+  public void testBulkOperations() {
+    Map<Long, String> entries = new HashMap<Long, String>();
+    for (long i = 0; i < 10; i++) {
+      entries.put(Long.valueOf(i), "prefix-" + i);
+    }
+    shiroCache.putAll(entries);
+    Assert.assertEquals(10, shiroCache.size());
+
+    Map<Long, String> found = shiroCache.getAll(new HashSet<Long>(Arrays.asList(Long.valueOf(1), Long.valueOf(2), Long.valueOf(42))));
+    Assert.assertEquals("prefix-1", found.get(Long.valueOf(1)));
+    Assert.assertEquals("prefix-2", found.get(Long.valueOf(2)));
+    Assert.assertNull(found.get(Long.valueOf(42)));
+
+    shiroCache.removeAll(new HashSet<Long>(Arrays.asList(Long.valueOf(1), Long.valueOf(2), Long.valueOf(42))));
+    Assert.assertEquals(8, shiroCache.size());
+    Assert.assertNull(shiroCache.get(Long.valueOf(1)));
+  }
+
+  @Test
+  public void testParallelStreams() {
+    for (long i = 0; i < 100; i++) {
+      shiroCache.put(Long.valueOf(i), "prefix-" + i);
+    }
+
+    Assert.assertEquals(4950L, shiroCache.keys().parallelStream().mapToLong(Long::longValue).sum());
+    Assert.assertEquals(100, shiroCache.values().parallelStream().filter(v -> v.startsWith("prefix-")).count());
+    Assert.assertEquals(100, shiroCache.values().stream().collect(Collectors.toSet()).size());
+  }
+
+  @Test
+  public void testSpliteratorEstimatedSize() {
+    putElementsAndAssertSize();
+
+    Spliterator<Long> spliterator = shiroCache.keys().spliterator();
+    Assert.assertEquals(Long.MAX_VALUE, spliterator.estimateSize());
+    Assert.assertTrue(spliterator.hasCharacteristics(Spliterator.DISTINCT | Spliterator.NONNULL));
+    Assert.assertFalse(spliterator.hasCharacteristics(Spliterator.SIZED));
+
+    shiroCache.setSizeMode(EhcacheShiro.SizeMode.COUNTED);
+    Assert.assertEquals(10, shiroCache.keys().spliterator().estimateSize());
+    Assert.assertEquals(10, shiroCache.values().spliterator().estimateSize());
+    Assert.assertFalse(shiroCache.values().spliterator().hasCharacteristics(Spliterator.DISTINCT));
+  }
+
+  @Test
+  public void testSingleFlightGet() throws Exception {
+    shiroCache.setGetMode(EhcacheShiro.GetMode.SINGLE_FLIGHT);
+    final Long key = Long.valueOf(1);
+    final AtomicInteger loads = new AtomicInteger();
+    final CountDownLatch start = new CountDownLatch(1);
+    int threads = 8;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+    try {
+      List<Future<String>> futures = new ArrayList<Future<String>>();
+      for (int i = 0; i < threads; i++) {
+        futures.add(executor.submit(new Callable<String>() {
+          public String call() throws Exception {
+            start.await();
+            String value = shiroCache.get(key);
+            if (value == null) {
+              loads.incrementAndGet();
+              Thread.sleep(100);
+              value = "loaded";
+              shiroCache.put(key, value);
+            }
+            return value;
+          }
+        }));
+      }
+      start.countDown();
+
+      for (Future<String> future : futures) {
+        Assert.assertEquals("loaded", future.get());
+      }
+      Assert.assertEquals(1, loads.get());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testSingleFlightMissWithoutLoad() {
+    shiroCache.setGetMode(EhcacheShiro.GetMode.SINGLE_FLIGHT);
+
+    Assert.assertNull(shiroCache.get(Long.valueOf(1)));
+    Assert.assertNull(shiroCache.get(Long.valueOf(1)));
+    shiroCache.put(Long.valueOf(1), "value");
+    Assert.assertEquals("value", shiroCache.get(Long.valueOf(1)));
+
+    shiroCache.setGetMode(EhcacheShiro.GetMode.DIRECT);
+    Assert.assertEquals(EhcacheShiro.GetMode.DIRECT, shiroCache.getGetMode());
+  }
+
+  @Test
+  public void testCloseStopsIndexAndSingleFlight() {
+    shiroCache.setExpiryIndexed(true);
+    shiroCache.setGetMode(EhcacheShiro.GetMode.SINGLE_FLIGHT);
+    Assert.assertNull(shiroCache.get(Long.valueOf(1)));
+
+    shiroCache.close();
+    Assert.assertFalse(shiroCache.isExpiryIndexed());
+    Assert.assertEquals(EhcacheShiro.GetMode.DIRECT, shiroCache.getGetMode());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNullGetMode() {
+    shiroCache.setGetMode(null);
+  }
 }
@@ -0,0 +1,79 @@
+/**
+ * Copyright Terracotta, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ehcache.integrations.shiro;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
+public class EhcacheSpliteratorTest {
+
+  private static List<Integer> range(int size) {
+    return IntStream.range(0, size).boxed().collect(Collectors.toList());
+  }
+
+  @Test
+  public void testSplitBatchesGrow() {
+    List<Integer> elements = range(1000);
+    EhcacheSpliterator<Integer> spliterator = new EhcacheSpliterator<Integer>(elements.iterator(), Long.MAX_VALUE, 0);
+
+    Spliterator<Integer> first = spliterator.trySplit();
+    Spliterator<Integer> second = spliterator.trySplit();
+    Assert.assertEquals(EhcacheSpliterator.BATCH_UNIT, first.estimateSize());
+    Assert.assertEquals(2 * EhcacheSpliterator.BATCH_UNIT, second.estimateSize());
+    Assert.assertTrue(first.hasCharacteristics(Spliterator.SIZED | Spliterator.NONNULL));
+    Assert.assertEquals(Long.MAX_VALUE, spliterator.estimateSize());
+
+    List<Integer> collected = new ArrayList<Integer>();
+    first.forEachRemaining(collected::add);
+    second.forEachRemaining(collected::add);
+    spliterator.forEachRemaining(collected::add);
+    Assert.assertEquals(elements, collected);
+  }
+
+  @Test
+  public void testSplitWithEstimate() {
+    EhcacheSpliterator<Integer> spliterator = new EhcacheSpliterator<Integer>(range(100).iterator(), 100, 0);
+
+    Assert.assertEquals(EhcacheSpliterator.BATCH_UNIT, spliterator.trySplit().estimateSize());
+    Assert.assertEquals(100 - EhcacheSpliterator.BATCH_UNIT, spliterator.estimateSize());
+    Assert.assertEquals(100 - EhcacheSpliterator.BATCH_UNIT, spliterator.trySplit().estimateSize());
+    Assert.assertNull(spliterator.trySplit());
+  }
+
+  @Test
+  public void testEmpty() {
+    EhcacheSpliterator<Integer> spliterator = new EhcacheSpliterator<Integer>(range(0).iterator(), Long.MAX_VALUE, 0);
+
+    Assert.assertNull(spliterator.trySplit());
+    Assert.assertFalse(spliterator.tryAdvance(i -> Assert.fail()));
+  }
+
+  @Test
+  public void testParallelStream() {
+    List<Integer> elements = range(100000);
+    EhcacheSpliterator<Integer> spliterator = new EhcacheSpliterator<Integer>(elements.iterator(), Long.MAX_VALUE, Spliterator.DISTINCT);
+
+    Assert.assertEquals(elements, StreamSupport.stream(spliterator, true).sorted().collect(Collectors.toList()));
+  }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright Terracotta, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ehcache.integrations.shiro;
+
+import org.apache.shiro.session.mgt.SimpleSession;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+public class FileSessionSinkTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private FileSessionSink sink;
+
+  @Before
+  public void setUp() throws Exception {
+    sink = new FileSessionSink(new File(folder.getRoot(), "sessions"));
+  }
+
+  @Test
+  public void testStoreReadAndDelete() throws Exception {
+    Map<Object, Object> sessions = new HashMap<Object, Object>();
+    for (int i = 0; i < 10; i++) {
+      SimpleSession session = new SimpleSession("127.0.0.1");
+      session.setId(UUID.randomUUID().toString());
+      session.setAttribute("index", i);
+      sessions.put(session.getId(), session);
+    }
+
+    sink.storeAll(sessions);
+    Assert.assertEquals(10, sink.size());
+    for (Map.Entry<Object, Object> entry : sessions.entrySet()) {
+      SimpleSession read = (SimpleSession) sink.read(entry.getKey());
+      Assert.assertEquals(((SimpleSession) entry.getValue()).getAttribute("index"), read.getAttribute("index"));
+    }
+
+    Object deleted = sessions.keySet().iterator().next();
+    sink.deleteAll(Arrays.asList(deleted, "unknownId"));
+    Assert.assertEquals(9, sink.size());
+    Assert.assertNull(sink.read(deleted));
+  }
+
+  @Test
+  public void testStoreReplaces() throws Exception {
+    sink.storeAll(Collections.singletonMap("id", "first"));
+    sink.storeAll(Collections.singletonMap("id", "second"));
+
+    Assert.assertEquals(1, sink.size());
+    Assert.assertEquals("second", sink.read("id"));
+  }
+
+  @Test
+  public void testReadUnknown() throws Exception {
+    Assert.assertNull(sink.read("unknownId"));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testNoDirectory() throws Exception {
+    new FileSessionSink().storeAll(Collections.singletonMap("id", "value"));
+  }
+
+  @Test
+  public void testWriteBehindToFiles() throws Exception {
+    EhcacheShiroManager cacheManager = new EhcacheShiroManager();
+    cacheManager.setSessionSink(sink);
+    cacheManager.setWriteBehindCaches(Collections.singleton("shiro-activeSessionCache"));
+    cacheManager.setWriteBehindMaxDelayMillis(50);
+
+    try {
+      SimpleSession session = new SimpleSession("127.0.0.1");
+      session.setId(UUID.randomUUID().toString());
+      cacheManager.getCache("shiro-activeSessionCache").put(session.getId(), session);
+
+      long deadline = System.currentTimeMillis() + 10000;
+      while (sink.read(session.getId()) == null && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      Assert.assertEquals(session.getId(), ((SimpleSession) sink.read(session.getId())).getId());
+    } finally {
+      cacheManager.destroy();
+    }
+  }
+}
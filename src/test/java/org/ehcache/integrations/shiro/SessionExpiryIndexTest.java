@@ -0,0 +1,157 @@
+/**
+ * Copyright Terracotta, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ehcache.integrations.shiro;
+
+import org.apache.shiro.session.mgt.SimpleSession;
+import org.ehcache.Cache;
+import org.ehcache.CacheManager;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.CacheManagerBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+
+public class SessionExpiryIndexTest {
+
+  private static final long MINUTE = 60 * 1000L;
+
+  private CacheManager cacheManager;
+
+  private Cache<String, Object> cache;
+
+  private EhcacheShiro<String, Object> shiroCache;
+
+  private long now;
+
+  @Before
+  public void setUp() {
+    cacheManager = CacheManagerBuilder.newCacheManagerBuilder()
+            .withCache("sessions", CacheConfigurationBuilder.newCacheConfigurationBuilder(String.class, Object.class,
+                    ResourcePoolsBuilder.heap(100)))
+            .build(true);
+    cache = cacheManager.getCache("sessions", String.class, Object.class);
+    shiroCache = new EhcacheShiro<String, Object>(cache);
+    now = System.currentTimeMillis();
+  }
+
+  @After
+  public void tearDown() {
+    cacheManager.close();
+  }
+
+  @Test
+  public void testCandidates() {
+    shiroCache.put("existing", newSession("existing", now - 40 * MINUTE));
+    shiroCache.setExpiryIndexed(true);
+    Assert.assertTrue(shiroCache.isExpiryIndexed());
+
+    shiroCache.put("old", newSession("old", now - 35 * MINUTE));
+    shiroCache.put("recent", newSession("recent", now));
+    shiroCache.put("immortal", newSession("immortal", -1L, now - 60 * MINUTE));
+    shiroCache.put("notASession", "someValue");
+
+    Assert.assertEquals(ids("existing", "old"), ids(shiroCache.getExpirationCandidates(now)));
+    Assert.assertEquals(ids("existing", "old", "recent"), ids(shiroCache.getExpirationCandidates(now + 31 * MINUTE)));
+  }
+
+  @Test
+  public void testIndexFollowsUpdatesAndRemovals() {
+    shiroCache.setExpiryIndexed(true);
+
+    SimpleSession session = newSession("session", now - 35 * MINUTE);
+    shiroCache.put("session", session);
+    Assert.assertEquals(ids("session"), ids(shiroCache.getExpirationCandidates(now)));
+
+    session.setLastAccessTime(new Date(now));
+    shiroCache.put("session", session);
+    Assert.assertTrue(shiroCache.getExpirationCandidates(now).isEmpty());
+
+    shiroCache.remove("session");
+    Assert.assertTrue(shiroCache.getExpirationCandidates(now + 60 * MINUTE).isEmpty());
+
+    shiroCache.put("other", newSession("other", now - 35 * MINUTE));
+    shiroCache.clear();
+    Assert.assertTrue(shiroCache.getExpirationCandidates(now).isEmpty());
+  }
+
+  @Test
+  public void testIndexFollowsEvictions() {
+    SessionExpiryIndex<String, Object> index = new SessionExpiryIndex<String, Object>(cache, MINUTE);
+    index.register();
+
+    for (int i = 0; i < 500; i++) {
+      cache.put("session-" + i, newSession("session-" + i, now));
+    }
+
+    int size = 0;
+    for (Cache.Entry<String, Object> ignored : cache) {
+      size++;
+    }
+    Assert.assertEquals(size, index.size());
+    Assert.assertEquals(size, index.keysExpiringBefore(now + 31 * MINUTE).size());
+
+    index.deregister();
+  }
+
+  @Test
+  public void testWithoutIndex() {
+    shiroCache.put("old", newSession("old", now - 35 * MINUTE));
+    shiroCache.put("recent", newSession("recent", now));
+
+    Assert.assertFalse(shiroCache.isExpiryIndexed());
+    Assert.assertEquals(ids("old", "recent"), ids(shiroCache.getExpirationCandidates(now)));
+
+    shiroCache.setExpiryIndexed(true);
+    shiroCache.setExpiryIndexed(false);
+    Assert.assertEquals(ids("old", "recent"), ids(shiroCache.getExpirationCandidates(now)));
+  }
+
+  private static SimpleSession newSession(String id, long lastAccessTime) {
+    return newSession(id, 30 * MINUTE, lastAccessTime);
+  }
+
+  private static SimpleSession newSession(String id, long timeout, long lastAccessTime) {
+    SimpleSession session = new SimpleSession("127.0.0.1");
+    session.setId(id);
+    session.setTimeout(timeout);
+    session.setLastAccessTime(new Date(lastAccessTime));
+    return session;
+  }
+
+  private static Set<Object> ids(String... ids) {
+    Set<Object> set = new HashSet<Object>();
+    for (String id : ids) {
+      set.add(id);
+    }
+    return set;
+  }
+
+  private static Set<Object> ids(Collection<Object> sessions) {
+    Set<Object> set = new HashSet<Object>();
+    for (Object session : sessions) {
+      set.add(((SimpleSession) session).getId());
+    }
+    return set;
+  }
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright Terracotta, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ehcache.integrations.shiro;
+
+import org.apache.shiro.session.mgt.SimpleSession;
+import org.ehcache.Cache;
+import org.ehcache.CacheManager;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.CacheManagerBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.ehcache.expiry.ExpiryPolicy;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Date;
+
+public class SessionExpiryPolicyTest {
+
+  private final SessionExpiryPolicy policy = new SessionExpiryPolicy();
+
+  @Test
+  public void testExpiryFollowsSessionTimeout() {
+    SimpleSession session = newSession(60000L, System.currentTimeMillis() - 20000L);
+
+    Duration expiry = policy.getExpiryForCreation("id", session);
+    Assert.assertTrue(expiry.toMillis() <= 40000L);
+    Assert.assertTrue(expiry.toMillis() > 35000L);
+
+    session.touch();
+    Duration updated = policy.getExpiryForUpdate("id", null, session);
+    Assert.assertTrue(updated.toMillis() > 55000L);
+  }
+
+  @Test
+  public void testAccessLeavesExpiryUnchanged() {
+    Assert.assertNull(policy.getExpiryForAccess("id", null));
+  }
+
+  @Test
+  public void testTimedOutSession() {
+    SimpleSession session = newSession(1000L, System.currentTimeMillis() - 2000L);
+    Assert.assertEquals(Duration.ZERO, policy.getExpiryForCreation("id", session));
+  }
+
+  @Test
+  public void testGracePeriod() {
+    SimpleSession session = newSession(1000L, System.currentTimeMillis() - 2000L);
+    Duration expiry = new SessionExpiryPolicy(Duration.ofMinutes(1)).getExpiryForCreation("id", session);
+    Assert.assertTrue(expiry.toMillis() > 55000L);
+  }
+
+  @Test
+  public void testNeverExpiringValues() {
+    Assert.assertEquals(ExpiryPolicy.INFINITE, policy.getExpiryForCreation("id", newSession(-1L, 0L)));
+    Assert.assertEquals(ExpiryPolicy.INFINITE, policy.getExpiryForCreation("id", newSession(Long.MAX_VALUE, System.currentTimeMillis())));
+    Assert.assertEquals(ExpiryPolicy.INFINITE, policy.getExpiryForCreation("id", "notASession"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNegativeGracePeriod() {
+    new SessionExpiryPolicy(Duration.ofSeconds(-1));
+  }
+
+  @Test
+  public void testCacheDropsTimedOutSessions() throws Exception {
+    CacheManager cacheManager = CacheManagerBuilder.newCacheManagerBuilder()
+            .withCache("sessions", CacheConfigurationBuilder.newCacheConfigurationBuilder(String.class, Object.class,
+                    ResourcePoolsBuilder.heap(10)).withExpiry(policy))
+            .build(true);
+
+    try {
+      Cache<String, Object> cache = cacheManager.getCache("sessions", String.class, Object.class);
+      cache.put("short", newSession(100L, System.currentTimeMillis()));
+      cache.put("long", newSession(60000L, System.currentTimeMillis()));
+
+      Thread.sleep(300L);
+
+      Assert.assertNull(cache.get("short"));
+      Assert.assertNotNull(cache.get("long"));
+    } finally {
+      cacheManager.close();
+    }
+  }
+
+  private static SimpleSession newSession(long timeout, long lastAccessTime) {
+    SimpleSession session = new SimpleSession("127.0.0.1");
+    session.setTimeout(timeout);
+    session.setLastAccessTime(new Date(lastAccessTime));
+    return session;
+  }
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright Terracotta, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ehcache.integrations.shiro;
+
+import org.ehcache.impl.serialization.TransientStateRepository;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+public class SessionIdSerializerTest {
+
+  private SessionIdSerializer serializer;
+
+  @Before
+  public void setUp() {
+    serializer = new SessionIdSerializer(getClass().getClassLoader());
+    serializer.init(new TransientStateRepository());
+  }
+
+  @Test
+  public void testUuidRoundTrip() throws Exception {
+    for (int i = 0; i < 1000; i++) {
+      UUID uuid = UUID.randomUUID();
+      ByteBuffer binary = serializer.serialize(uuid.toString());
+
+      Assert.assertEquals(17, binary.remaining());
+      Assert.assertEquals(uuid.getMostSignificantBits(), binary.getLong(1));
+      Assert.assertEquals(uuid.getLeastSignificantBits(), binary.getLong(9));
+      Assert.assertEquals(uuid.toString(), serializer.read(binary.duplicate()));
+      Assert.assertTrue(serializer.equals(uuid.toString(), binary));
+    }
+  }
+
+  @Test
+  public void testUuidEquality() throws Exception {
+    String id = UUID.randomUUID().toString();
+    ByteBuffer binary = serializer.serialize(id);
+
+    Assert.assertFalse(serializer.equals(UUID.randomUUID().toString(), binary));
+    Assert.assertFalse(serializer.equals("someId", binary));
+    Assert.assertFalse(serializer.equals(Long.valueOf(1), binary));
+  }
+
+  @Test
+  public void testNonCanonicalStrings() throws Exception {
+    String upperCase = UUID.randomUUID().toString().toUpperCase();
+    String[] ids = { "someId", "", upperCase, "0123456789abcdef0123456789abcdef0123", "été" };
+
+    for (String id : ids) {
+      ByteBuffer binary = serializer.serialize(id);
+      Assert.assertEquals(id, serializer.read(binary.duplicate()));
+      Assert.assertTrue(serializer.equals(id, binary));
+    }
+  }
+
+  @Test
+  public void testOtherKeyTypes() throws Exception {
+    Assert.assertEquals(Long.valueOf(42), serializer.read(serializer.serialize(Long.valueOf(42))));
+    UUID uuid = UUID.randomUUID();
+    Assert.assertEquals(uuid, serializer.read(serializer.serialize(uuid)));
+    Assert.assertTrue(serializer.equals(uuid, serializer.serialize(uuid)));
+  }
+
+  @Test
+  public void testIsCanonicalUuid() {
+    Assert.assertTrue(SessionIdSerializer.isCanonicalUuid(UUID.randomUUID().toString()));
+    Assert.assertFalse(SessionIdSerializer.isCanonicalUuid(UUID.randomUUID().toString().toUpperCase()));
+    Assert.assertFalse(SessionIdSerializer.isCanonicalUuid(UUID.randomUUID().toString().replace('-', '_')));
+    Assert.assertFalse(SessionIdSerializer.isCanonicalUuid("someId"));
+  }
+}
@@ -0,0 +1,243 @@
+/**
+ * Copyright Terracotta, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.ehcache.integrations.shiro;
+
+import org.apache.shiro.session.mgt.SimpleSession;
+import org.ehcache.Cache;
+import org.ehcache.CacheManager;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.CacheManagerBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+public class SessionImageTest {
+
+  private CacheManager cacheManager;
+
+  private Cache<Object, Object> sessionCache;
+
+  private EhcacheShiro<Object, Object> shiroCache;
+
+  @Before
+  public void setUp() {
+    cacheManager = CacheManagerBuilder.newCacheManagerBuilder()
+            .withCache("sessions", CacheConfigurationBuilder.newCacheConfigurationBuilder(
+                    Object.class, Object.class, ResourcePoolsBuilder.heap(100)))
+            .build(true);
+    sessionCache = cacheManager.getCache("sessions", Object.class, Object.class);
+    shiroCache = new EhcacheShiro<Object, Object>(sessionCache);
+    shiroCache.setDeltaStorage(true);
+  }
+
+  @After
+  public void tearDown() {
+    cacheManager.close();
+  }
+
+  @Test
+  public void testRoundTrip() {
+    SimpleSession session = newSession("id");
+    session.setStopTimestamp(new Date(1234L));
+    session.setExpired(true);
+
+    SimpleSession rebuilt = SessionImage.of(session).toSession();
+    Assert.assertEquals(session.getId(), rebuilt.getId());
+    Assert.assertEquals(session.getStartTimestamp(), rebuilt.getStartTimestamp());
+    Assert.assertEquals(session.getStopTimestamp(), rebuilt.getStopTimestamp());
+    Assert.assertEquals(session.getLastAccessTime(), rebuilt.getLastAccessTime());
+    Assert.assertEquals(session.getTimeout(), rebuilt.getTimeout());
+    Assert.assertEquals(session.isExpired(), rebuilt.isExpired());
+    Assert.assertEquals(session.getHost(), rebuilt.getHost());
+    Assert.assertEquals(session.getAttributeKeys(), rebuilt.getAttributeKeys());
+    Assert.assertEquals(session.getAttribute("list"), rebuilt.getAttribute("list"));
+    Assert.assertTrue(rebuilt.getAttribute("identity") instanceof IdentityHashed);
+  }
+
+  @Test
+  public void testAttributesAreDeserializedWhenRead() {
+    SessionImage image = SessionImage.of(newSession("id"));
+    SimpleSession session = image.toSession();
+
+    Assert.assertEquals(image.getAttributeKeys(), session.getAttributeKeys());
+    Assert.assertEquals("user", session.getAttribute("user"));
+    Assert.assertSame(session.getAttribute("list"), session.getAttribute("list"));
+    Assert.assertEquals(Arrays.asList("a", "b"), session.getAttribute("list"));
+    Assert.assertEquals(1, session.removeAttribute("counter"));
+    Assert.assertNull(session.getAttribute("counter"));
+  }
+
+  @Test
+  public void testUnchangedAttributesAreNotSerializedAgain() {
+    SessionImage previous = SessionImage.of(newSession("id"));
+    SimpleSession session = previous.toSession();
+
+    session.getAttribute("user");
+    session.getAttribute("state");
+    session.setAttribute("counter", 2);
+    @SuppressWarnings("unchecked")
+    ArrayList<String> list = (ArrayList<String>) session.getAttribute("list");
+    list.add("c");
+    SessionImage image = SessionImage.of(session);
+
+    Assert.assertSame(previous.attributeBytes("user"), image.attributeBytes("user"));
+    Assert.assertSame(previous.attributeBytes("state"), image.attributeBytes("state"));
+    Assert.assertSame(previous.attributeBytes("identity"), image.attributeBytes("identity"));
+    Assert.assertNotSame(previous.attributeBytes("counter"), image.attributeBytes("counter"));
+    Assert.assertNotSame(previous.attributeBytes("list"), image.attributeBytes("list"));
+
+    SimpleSession rebuilt = image.toSession();
+    Assert.assertEquals(2, rebuilt.getAttribute("counter"));
+    Assert.assertEquals(Arrays.asList("a", "b", "c"), rebuilt.getAttribute("list"));
+  }
+
+  @Test
+  public void testReadMutableAttributesAreSerializedAgain() {
+    SessionImage previous = SessionImage.of(newSession("id"));
+    SimpleSession session = previous.toSession();
+    session.getAttribute("identity");
+
+    Assert.assertNotSame(previous.attributeBytes("identity"), SessionImage.of(session).attributeBytes("identity"));
+  }
+
+  @Test
+  public void testEqualHashCodesAreNotMistakenForUnchangedValues() {
+    SimpleSession original = newSession("id");
+    original.setAttribute("name", "Aa");
+    original.setAttribute("flag", Boolean.TRUE);
+    SimpleSession session = SessionImage.of(original).toSession();
+
+    Assert.assertEquals("Aa", session.getAttribute("name"));
+    Assert.assertEquals(Boolean.TRUE, session.getAttribute("flag"));
+    Assert.assertEquals("Aa".hashCode(), "BB".hashCode());
+    Assert.assertEquals(Boolean.TRUE.hashCode(), Integer.valueOf(1231).hashCode());
+    session.setAttribute("name", "BB");
+    session.setAttribute("flag", Integer.valueOf(1231));
+    SimpleSession rebuilt = SessionImage.of(session).toSession();
+
+    Assert.assertEquals("BB", rebuilt.getAttribute("name"));
+    Assert.assertEquals(Integer.valueOf(1231), rebuilt.getAttribute("flag"));
+  }
+
+  @Test
+  public void testRebuiltSessionIsSerializable() throws Exception {
+    SimpleSession session = SessionImage.of(newSession("id")).toSession();
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(session);
+    out.close();
+    SimpleSession copy = (SimpleSession) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+
+    Assert.assertEquals(session.getAttributeKeys(), copy.getAttributeKeys());
+    Assert.assertEquals("user", copy.getAttribute("user"));
+    Assert.assertEquals(Arrays.asList("a", "b"), copy.getAttribute("list"));
+  }
+
+  @Test
+  public void testStoredSessionView() {
+    SimpleSession session = newSession("id");
+    SessionImage image = SessionImage.of(session);
+    Assert.assertEquals(session.getTimeout(), image.getTimeout());
+    Assert.assertEquals(session.getLastAccessTime(), image.getLastAccessTime());
+    Assert.assertEquals(session.getAttributeKeys(), new HashSet<Object>(image.getAttributeKeys()));
+    Assert.assertTrue(image.isValid());
+
+    session.stop();
+    Assert.assertFalse(SessionImage.of(session).isValid());
+  }
+
+  @Test
+  public void testImagesAreEqualByContent() throws Exception {
+    SimpleSession session = newSession("id");
+    SessionImage image = SessionImage.of(session);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(image);
+    out.close();
+    Object copy = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+    Assert.assertEquals(image, copy);
+    Assert.assertEquals(image.hashCode(), copy.hashCode());
+
+    session.setAttribute("counter", 2);
+    Assert.assertNotEquals(image, SessionImage.of(session));
+  }
+
+  @Test
+  public void testDeltaStorage() {
+    SimpleSession session = newSession("id");
+    Assert.assertNull(shiroCache.put("id", session));
+    Assert.assertTrue(sessionCache.get("id") instanceof SessionImage);
+
+    session.setAttribute("counter", 2);
+    SimpleSession previous = (SimpleSession) shiroCache.put("id", session);
+    Assert.assertEquals(1, previous.getAttribute("counter"));
+
+    SimpleSession stored = (SimpleSession) shiroCache.get("id");
+    Assert.assertEquals(2, stored.getAttribute("counter"));
+    Assert.assertEquals("user", stored.getAttribute("user"));
+    Assert.assertEquals(2, ((SimpleSession) shiroCache.getAll(Collections.singleton("id")).get("id")).getAttribute("counter"));
+    Assert.assertTrue(shiroCache.values().iterator().next() instanceof SimpleSession);
+    Assert.assertTrue(shiroCache.cursor().nextPage(10).get("id") instanceof SimpleSession);
+
+    Assert.assertEquals(2, ((SimpleSession) shiroCache.remove("id")).getAttribute("counter"));
+    Assert.assertNull(shiroCache.get("id"));
+  }
+
+  @Test
+  public void testOtherValuesAreStoredAsIs() {
+    shiroCache.put("key", "value");
+    Assert.assertEquals("value", sessionCache.get("key"));
+    Assert.assertEquals("value", shiroCache.get("key"));
+
+    shiroCache.setDeltaStorage(false);
+    shiroCache.put("id", newSession("id"));
+    Assert.assertTrue(sessionCache.get("id") instanceof SimpleSession);
+  }
+
+  private static SimpleSession newSession(String id) {
+    SimpleSession session = new SimpleSession("127.0.0.1");
+    session.setId(id);
+    session.setAttribute("user", "user");
+    session.setAttribute("counter", 1);
+    session.setAttribute("list", new ArrayList<String>(Arrays.asList("a", "b")));
+    session.setAttribute("identity", new IdentityHashed());
+    session.setAttribute("state", TimeUnit.SECONDS);
+    return session;
+  }
+
+  private static class IdentityHashed implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+  }
+}
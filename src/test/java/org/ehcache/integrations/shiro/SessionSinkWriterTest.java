@@ -0,0 +1,149 @@
+/**
+ * Copyright Terracotta, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ehcache.integrations.shiro;
+
+import org.ehcache.Cache;
+import org.ehcache.CacheManager;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.CacheManagerBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.ehcache.event.CacheEvent;
+import org.ehcache.event.EventType;
+import org.ehcache.impl.config.loaderwriter.DefaultCacheLoaderWriterConfiguration;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class SessionSinkWriterTest {
+
+  @Test
+  public void testFailedWritesAreRetried() throws Exception {
+    FlakySessionSink sink = new FlakySessionSink(SessionSinkWriter.ATTEMPTS - 1);
+    new SessionSinkWriter(sink, 1).write("id", "session");
+
+    Assert.assertEquals(SessionSinkWriter.ATTEMPTS, sink.calls);
+    Assert.assertEquals(Collections.singletonList("id"), sink.stored);
+  }
+
+  @Test
+  public void testFailuresAreRethrownAfterTheLastAttempt() throws Exception {
+    FlakySessionSink sink = new FlakySessionSink(SessionSinkWriter.ATTEMPTS);
+
+    try {
+      new SessionSinkWriter(sink, 1).deleteAll(Collections.singleton("id"));
+      Assert.fail("Expected the sink failure");
+    } catch (IOException e) {
+      Assert.assertEquals(SessionSinkWriter.ATTEMPTS, sink.calls);
+    }
+  }
+
+  @Test
+  public void testOnlyExpiredSessionsAreDeletedThroughTheCache() {
+    FlakySessionSink sink = new FlakySessionSink(0);
+    SessionSinkWriter writer = new SessionSinkWriter(sink, 1);
+    CacheManager cacheManager = CacheManagerBuilder.newCacheManagerBuilder()
+            .withCache("sessions", CacheConfigurationBuilder.newCacheConfigurationBuilder(Object.class, Object.class,
+                    ResourcePoolsBuilder.heap(10)).add(new DefaultCacheLoaderWriterConfiguration(writer)))
+            .build(true);
+    try {
+      Cache<Object, Object> cache = cacheManager.getCache("sessions", Object.class, Object.class);
+
+      writer.onEvent(new Event(cache, EventType.EXPIRED, "expired"));
+      writer.onEvent(new Event(cache, EventType.EVICTED, "evicted"));
+      writer.onEvent(new Event(cache, EventType.UPDATED, "updated"));
+
+      Assert.assertEquals(1, sink.calls);
+      Assert.assertEquals(Collections.singletonList("expired"), sink.deleted);
+    } finally {
+      cacheManager.close();
+    }
+  }
+
+  private static class FlakySessionSink implements SessionSink {
+
+    private int failures;
+
+    private int calls;
+
+    private final List<Object> stored = new ArrayList<Object>();
+
+    private final List<Object> deleted = new ArrayList<Object>();
+
+    FlakySessionSink(int failures) {
+      this.failures = failures;
+    }
+
+    public void storeAll(Map<?, ?> sessions) throws IOException {
+      call();
+      stored.addAll(sessions.keySet());
+    }
+
+    public void deleteAll(Collection<?> sessionIds) throws IOException {
+      call();
+      deleted.addAll(sessionIds);
+    }
+
+    private void call() throws IOException {
+      calls++;
+      if (failures-- > 0) {
+        throw new IOException("Sink unavailable");
+      }
+    }
+  }
+
+  private static class Event implements CacheEvent<Object, Object> {
+
+    private final Cache<Object, Object> source;
+
+    private final EventType type;
+
+    private final Object key;
+
+    Event(Cache<Object, Object> source, EventType type, Object key) {
+      this.source = source;
+      this.type = type;
+      this.key = key;
+    }
+
+    public EventType getType() {
+      return type;
+    }
+
+    public Object getKey() {
+      return key;
+    }
+
+    public Object getNewValue() {
+      return null;
+    }
+
+    public Object getOldValue() {
+      return "session";
+    }
+
+    @Deprecated
+    public Cache<Object, Object> getSource() {
+      return source;
+    }
+  }
+}
@@ -0,0 +1,282 @@
+/**
+ * Copyright Terracotta, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ehcache.integrations.shiro;
+
+import org.apache.shiro.session.mgt.SimpleSession;
+import org.ehcache.Cache;
+import org.ehcache.CacheManager;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.CacheManagerBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.ehcache.event.EventFiring;
+import org.ehcache.event.EventOrdering;
+import org.ehcache.event.EventType;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SessionTouchCoalescerTest {
+
+  private CacheManager cacheManager;
+
+  private Cache<String, SimpleSession> sessionCache;
+
+  private EhcacheShiro<String, SimpleSession> shiroCache;
+
+  private final AtomicInteger writes = new AtomicInteger();
+
+  @Before
+  public void setUp() {
+    cacheManager = CacheManagerBuilder.newCacheManagerBuilder()
+            .withCache("sessions", CacheConfigurationBuilder.newCacheConfigurationBuilder(
+                    String.class, SimpleSession.class, ResourcePoolsBuilder.heap(100)))
+            .build(true);
+    sessionCache = cacheManager.getCache("sessions", String.class, SimpleSession.class);
+    sessionCache.getRuntimeConfiguration().registerCacheEventListener(event -> writes.incrementAndGet(),
+            EventOrdering.UNORDERED, EventFiring.SYNCHRONOUS, EnumSet.of(EventType.CREATED, EventType.UPDATED));
+    shiroCache = new EhcacheShiro<String, SimpleSession>(sessionCache);
+    shiroCache.setTouchCoalescing(Duration.ofHours(1));
+  }
+
+  @After
+  public void tearDown() {
+    shiroCache.setTouchCoalescing(null);
+    cacheManager.close();
+  }
+
+  @Test
+  public void testTouchesAreAbsorbed() {
+    SimpleSession session = newSession("id");
+    shiroCache.put("id", session);
+
+    for (int i = 1; i <= 100; i++) {
+      SimpleSession touched = copy(session);
+      touched.setLastAccessTime(new Date(session.getLastAccessTime().getTime() + i));
+      Assert.assertNull(shiroCache.put("id", touched));
+    }
+
+    Assert.assertEquals(1, writes.get());
+    long lastAccess = session.getLastAccessTime().getTime() + 100;
+    Assert.assertEquals(lastAccess, shiroCache.get("id").getLastAccessTime().getTime());
+    Assert.assertEquals(lastAccess, shiroCache.values().iterator().next().getLastAccessTime().getTime());
+    Assert.assertEquals(lastAccess, shiroCache.getAll(Collections.singleton("id")).get("id").getLastAccessTime().getTime());
+    Assert.assertEquals(session.getLastAccessTime(), sessionCache.get("id").getLastAccessTime());
+
+    shiroCache.flushTouches();
+    Assert.assertEquals(2, writes.get());
+    Assert.assertEquals(lastAccess, sessionCache.get("id").getLastAccessTime().getTime());
+  }
+
+  @Test
+  public void testAttributeChangesAreWritten() {
+    SimpleSession session = newSession("id");
+    shiroCache.put("id", session);
+
+    SimpleSession touched = copy(session);
+    touched.setLastAccessTime(new Date(session.getLastAccessTime().getTime() + 1));
+    shiroCache.put("id", touched);
+    Assert.assertEquals(1, writes.get());
+
+    SimpleSession changed = copy(touched);
+    changed.setAttribute("cart", "book");
+    shiroCache.put("id", changed);
+    Assert.assertEquals(2, writes.get());
+    Assert.assertEquals("book", sessionCache.get("id").getAttribute("cart"));
+
+    shiroCache.flushTouches();
+    Assert.assertEquals(2, writes.get());
+  }
+
+  @Test
+  public void testCollidingAttributeChangesAreWritten() {
+    SimpleSession session = newSession("id");
+    session.setAttribute("name", "Aa");
+    shiroCache.put("id", session);
+
+    SimpleSession changed = copy(session);
+    changed.setLastAccessTime(new Date(session.getLastAccessTime().getTime() + 1));
+    changed.setAttribute("name", "BB");
+    shiroCache.put("id", changed);
+    Assert.assertEquals(2, writes.get());
+    Assert.assertEquals("BB", sessionCache.get("id").getAttribute("name"));
+  }
+
+  @Test
+  public void testAttributesChangedInPlaceAreWritten() {
+    SimpleSession session = newSession("id");
+    session.setAttribute("roles", new ArrayList<String>(Collections.singletonList("user")));
+    shiroCache.put("id", session);
+
+    SimpleSession changed = copy(session);
+    changed.setLastAccessTime(new Date(session.getLastAccessTime().getTime() + 1));
+    @SuppressWarnings("unchecked")
+    List<String> roles = (List<String>) changed.getAttribute("roles");
+    roles.add("admin");
+    shiroCache.put("id", changed);
+    Assert.assertEquals(2, writes.get());
+  }
+
+  @Test
+  public void testOtherValuesAreNeverAbsorbed() {
+    SessionTouchCoalescer<String, Object> touches = new SessionTouchCoalescer<String, Object>(null, (k, v) -> true, 1000);
+    touches.put("id", newSession("id"), () -> null);
+
+    Assert.assertEquals("written", touches.put("id", "value", () -> "written"));
+    Assert.assertEquals(0, touches.pendingCount());
+  }
+
+  @Test
+  public void testDirectRemoveDropsPendingTouch() {
+    SimpleSession session = newSession("id");
+    shiroCache.put("id", session);
+    SimpleSession touched = copy(session);
+    touched.setLastAccessTime(new Date(session.getLastAccessTime().getTime() + 1));
+    shiroCache.put("id", touched);
+
+    sessionCache.remove("id");
+    Assert.assertNull(shiroCache.get("id"));
+    shiroCache.flushTouches();
+    Assert.assertNull(sessionCache.get("id"));
+  }
+
+  @Test
+  public void testRemoveDropsPendingTouch() {
+    SimpleSession session = newSession("id");
+    shiroCache.put("id", session);
+    SimpleSession touched = copy(session);
+    touched.setLastAccessTime(new Date(session.getLastAccessTime().getTime() + 1));
+    shiroCache.put("id", touched);
+
+    Assert.assertSame(touched, shiroCache.remove("id"));
+    Assert.assertNull(shiroCache.get("id"));
+    shiroCache.flushTouches();
+    Assert.assertNull(sessionCache.get("id"));
+  }
+
+  @Test
+  public void testEvictedSessionsAreWritten() {
+    SimpleSession session = newSession("id");
+    shiroCache.put("id", session);
+    sessionCache.remove("id");
+
+    SimpleSession touched = copy(session);
+    touched.setLastAccessTime(new Date(session.getLastAccessTime().getTime() + 1));
+    shiroCache.put("id", touched);
+    Assert.assertEquals(touched.getLastAccessTime(), sessionCache.get("id").getLastAccessTime());
+  }
+
+  @Test
+  public void testDisablingFlushes() {
+    SimpleSession session = newSession("id");
+    shiroCache.put("id", session);
+    SimpleSession touched = copy(session);
+    touched.setLastAccessTime(new Date(session.getLastAccessTime().getTime() + 1));
+    shiroCache.put("id", touched);
+
+    shiroCache.setTouchCoalescing(null);
+    Assert.assertFalse(shiroCache.isTouchCoalescing());
+    Assert.assertEquals(touched.getLastAccessTime(), sessionCache.get("id").getLastAccessTime());
+  }
+
+  @Test
+  public void testPeriodicFlush() throws Exception {
+    shiroCache.setTouchCoalescing(Duration.ofMillis(20));
+    SimpleSession session = newSession("id");
+    shiroCache.put("id", session);
+    SimpleSession touched = copy(session);
+    touched.setLastAccessTime(new Date(session.getLastAccessTime().getTime() + 1));
+    shiroCache.put("id", touched);
+
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!touched.getLastAccessTime().equals(sessionCache.get("id").getLastAccessTime())
+           && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    Assert.assertEquals(touched.getLastAccessTime(), sessionCache.get("id").getLastAccessTime());
+  }
+
+  @Test
+  public void testTouchesOfStoredImagesDoNotLoadAttributes() {
+    Cache<Object, Object> imageCache = cacheManager.createCache("images",
+            CacheConfigurationBuilder.newCacheConfigurationBuilder(Object.class, Object.class, ResourcePoolsBuilder.heap(100)));
+    EhcacheShiro<Object, Object> imageShiroCache = new EhcacheShiro<Object, Object>(imageCache);
+    imageShiroCache.setDeltaStorage(true);
+    imageShiroCache.setTouchCoalescing(Duration.ofHours(1));
+    try {
+      SimpleSession session = newSession("id");
+      session.setAttribute("profile", new LoadCountingAttribute());
+      imageShiroCache.put("id", session);
+      LoadCountingAttribute.LOADS.set(0);
+
+      SimpleSession touched = (SimpleSession) imageShiroCache.get("id");
+      touched.setLastAccessTime(new Date(session.getLastAccessTime().getTime() + 1));
+      Assert.assertNull(imageShiroCache.put("id", touched));
+      Assert.assertSame(touched, imageShiroCache.get("id"));
+      Assert.assertEquals(0, LoadCountingAttribute.LOADS.get());
+
+      touched.setAttribute("cart", "book");
+      imageShiroCache.put("id", touched);
+      Assert.assertEquals("book", ((SessionImage) imageCache.get("id")).toSession().getAttribute("cart"));
+      Assert.assertEquals(0, LoadCountingAttribute.LOADS.get());
+    } finally {
+      imageShiroCache.setTouchCoalescing(null);
+    }
+  }
+
+  private static SimpleSession newSession(String id) {
+    SimpleSession session = new SimpleSession("127.0.0.1");
+    session.setId(id);
+    session.setAttribute("user", "user-" + id);
+    return session;
+  }
+
+  private static SimpleSession copy(SimpleSession session) {
+    SimpleSession copy = new SimpleSession(session.getHost());
+    copy.setId(session.getId());
+    copy.setStartTimestamp(session.getStartTimestamp());
+    copy.setLastAccessTime(session.getLastAccessTime());
+    copy.setTimeout(session.getTimeout());
+    for (Object key : session.getAttributeKeys()) {
+      copy.setAttribute(key, session.getAttribute(key));
+    }
+    return copy;
+  }
+
+  private static class LoadCountingAttribute implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    static final AtomicInteger LOADS = new AtomicInteger();
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+      in.defaultReadObject();
+      LOADS.incrementAndGet();
+    }
+  }
+}
@@ -0,0 +1,175 @@
+/**
+ * Copyright Terracotta, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ehcache.integrations.shiro;
+
+import org.apache.shiro.session.mgt.SimpleSession;
+import org.apache.shiro.subject.SimplePrincipalCollection;
+import org.ehcache.Cache;
+import org.ehcache.PersistentCacheManager;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.CacheManagerBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.ehcache.config.units.EntryUnit;
+import org.ehcache.config.units.MemoryUnit;
+import org.ehcache.impl.serialization.PlainJavaSerializer;
+import org.ehcache.impl.serialization.TransientStateRepository;
+import org.ehcache.spi.serialization.SerializerException;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.UUID;
+
+public class SimpleSessionSerializerTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private SimpleSessionSerializer serializer;
+
+  @Before
+  public void setUp() {
+    serializer = new SimpleSessionSerializer(getClass().getClassLoader());
+    serializer.init(new TransientStateRepository());
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    SimpleSession session = newSession();
+    session.setAttribute("user", "someUser");
+    session.setAttribute("visits", Integer.valueOf(3));
+    session.setAttribute("lastLogin", new Date(42L));
+    session.setAttribute(Long.valueOf(7), Boolean.TRUE);
+    session.setAttribute("principals", new SimplePrincipalCollection("someUser", "someRealm"));
+
+    SimpleSession copy = roundTrip(session);
+
+    assertSameSession(session, copy);
+    Assert.assertEquals(session.getAttributes(), copy.getAttributes());
+    Assert.assertTrue(serializer.equals(session, serializer.serialize(session)));
+  }
+
+  @Test
+  public void testRoundTripWithMissingFields() throws Exception {
+    SimpleSession session = newSession();
+    session.setStartTimestamp(null);
+    session.setLastAccessTime(null);
+    session.setHost(null);
+    session.setAttributes(null);
+
+    SimpleSession copy = roundTrip(session);
+
+    assertSameSession(session, copy);
+    Assert.assertNull(copy.getAttributes());
+  }
+
+  @Test
+  public void testRoundTripStoppedExpiredSession() throws Exception {
+    SimpleSession session = newSession();
+    session.setStopTimestamp(new Date());
+    session.setExpired(true);
+
+    SimpleSession copy = roundTrip(session);
+
+    assertSameSession(session, copy);
+    Assert.assertTrue(copy.isExpired());
+    Assert.assertFalse(copy.isValid());
+  }
+
+  @Test
+  public void testJavaSerializationFallback() throws Exception {
+    SimpleSession subclass = new ExtendedSession();
+    subclass.setId("subclass");
+    Object copy = serializer.read(serializer.serialize(subclass));
+    Assert.assertEquals(subclass.getClass(), copy.getClass());
+    Assert.assertEquals("subclass", ((SimpleSession) copy).getId());
+
+    Assert.assertEquals("someString", serializer.read(serializer.serialize("someString")));
+  }
+
+  @Test
+  public void testMoreCompactThanJavaSerialization() {
+    SimpleSession session = newSession();
+    session.setAttribute("user", "someUser");
+
+    ByteBuffer javaSerialized = new PlainJavaSerializer<Object>(getClass().getClassLoader()).serialize(session);
+    Assert.assertTrue(serializer.serialize(session).remaining() < javaSerialized.remaining());
+  }
+
+  @Test(expected = SerializerException.class)
+  public void testCorruptedPayload() throws Exception {
+    serializer.read(ByteBuffer.wrap(new byte[] { 42 }));
+  }
+
+  @Test
+  public void testDiskTier() throws Exception {
+    PersistentCacheManager cacheManager = CacheManagerBuilder.newCacheManagerBuilder()
+            .with(CacheManagerBuilder.persistence(folder.newFolder()))
+            .withCache("sessions", CacheConfigurationBuilder.newCacheConfigurationBuilder(String.class, Object.class,
+                    ResourcePoolsBuilder.newResourcePoolsBuilder().heap(10, EntryUnit.ENTRIES).disk(10, MemoryUnit.MB))
+                    .withValueSerializer(SimpleSessionSerializer.class))
+            .build(true);
+
+    try {
+      Cache<String, Object> cache = cacheManager.getCache("sessions", String.class, Object.class);
+      for (int i = 0; i < 100; i++) {
+        SimpleSession session = newSession();
+        session.setId("session-" + i);
+        session.setAttribute("index", Integer.valueOf(i));
+        cache.put((String) session.getId(), session);
+      }
+
+      for (int i = 0; i < 100; i++) {
+        SimpleSession session = (SimpleSession) cache.get("session-" + i);
+        Assert.assertEquals(Integer.valueOf(i), session.getAttribute("index"));
+      }
+    } finally {
+      cacheManager.close();
+    }
+  }
+
+  private SimpleSession roundTrip(SimpleSession session) throws Exception {
+    return (SimpleSession) serializer.read(serializer.serialize(session));
+  }
+
+  private static SimpleSession newSession() {
+    SimpleSession session = new SimpleSession("127.0.0.1");
+    session.setId(UUID.randomUUID().toString());
+    session.setTimeout(1234L);
+    return session;
+  }
+
+  private static void assertSameSession(SimpleSession expected, SimpleSession actual) {
+    Assert.assertEquals(SimpleSession.class, actual.getClass());
+    Assert.assertEquals(expected.getId(), actual.getId());
+    Assert.assertEquals(expected.getStartTimestamp(), actual.getStartTimestamp());
+    Assert.assertEquals(expected.getStopTimestamp(), actual.getStopTimestamp());
+    Assert.assertEquals(expected.getLastAccessTime(), actual.getLastAccessTime());
+    Assert.assertEquals(expected.getTimeout(), actual.getTimeout());
+    Assert.assertEquals(expected.getHost(), actual.getHost());
+    Assert.assertEquals(expected.isExpired(), actual.isExpired());
+  }
+
+  private static class ExtendedSession extends SimpleSession {
+
+    private static final long serialVersionUID = 1L;
+  }
+}